@@ -4,7 +4,12 @@ import io.javalin.http.Context
 import io.javalin.http.Header
 import jakarta.servlet.ServletOutputStream
 import jakarta.servlet.WriteListener
+import org.eclipse.jetty.ee10.servlet.HttpOutput
+import java.io.ByteArrayOutputStream
 import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
 
 internal class CompressedOutputStream(
     val minSizeForCompression: Int,
@@ -15,6 +20,7 @@ internal class CompressedOutputStream(
     private val originStream = ctx.res().outputStream
     private var compressedStream: OutputStream? = null
     private var isCompressionDecisionMade = false
+    private var pendingOutput: ByteArrayOutputStream? = null // output of the compressor, waiting to be written in non-blocking mode
 
     private fun maybeCreateCompressionStreamOnFirstWrite(length: Int) {
         if (!isCompressionDecisionMade) {
@@ -23,7 +29,7 @@ internal class CompressedOutputStream(
             val isCompressionDesired = length >= minSizeForCompression
             if (isCompressionAllowed && isCompressionDesired) {
                 compression.findMatchingCompressor(ctx.header(Header.ACCEPT_ENCODING) ?: "")?.also {
-                    this.compressedStream = it.compress(originStream)
+                    this.compressedStream = it.compress(pendingOutput ?: originStream)
                     ctx.header(Header.CONTENT_ENCODING, it.encoding())
                 }
             }
@@ -31,20 +37,81 @@ internal class CompressedOutputStream(
         }
     }
 
+    /**
+     * Decides on compression before the first write, from the content type and Accept-Encoding only,
+     * for results whose length isn't known up front (ex: a publisher, whose first item may be small).
+     */
+    fun decideCompressionForUnknownLength() = maybeCreateCompressionStreamOnFirstWrite(length = minSizeForCompression)
+
     override fun write(bytes: ByteArray, offset: Int, length: Int) {
         maybeCreateCompressionStreamOnFirstWrite(length)
         (compressedStream ?: originStream).write(bytes, offset, length)
+        writePendingOutput()
     }
 
     override fun write(byte: Int) {
         maybeCreateCompressionStreamOnFirstWrite(1)
         (compressedStream ?: originStream).write(byte)
+        writePendingOutput()
+    }
+
+    /**
+     * In non-blocking mode, each write may only write to the origin stream once, and only if it's ready.
+     * The compressor writes to a buffer instead, which is written to the origin stream as a whole.
+     */
+    private fun writePendingOutput() {
+        val pending = pendingOutput?.takeIf { it.size() > 0 } ?: return
+        originStream.write(pending.toByteArray()) // a copy, the origin stream may hold on to it until the write completes
+        pending.reset()
+    }
+
+    /** Writes the remaining bytes of the buffer in one call, direct buffers are passed to Jetty without copying them to the heap */
+    fun write(buffer: ByteBuffer) {
+        maybeCreateCompressionStreamOnFirstWrite(buffer.remaining())
+        val output = compressedStream ?: originStream
+        when {
+            output is HttpOutput -> output.write(buffer)
+            buffer.hasArray() -> output.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining()).also { buffer.position(buffer.limit()) }
+            else -> { // a direct buffer that is compressed
+                val chunk = ByteArray(minOf(buffer.remaining(), 32_768))
+                while (buffer.hasRemaining()) {
+                    val length = minOf(chunk.size, buffer.remaining())
+                    buffer.get(chunk, 0, length)
+                    output.write(chunk, 0, length)
+                }
+            }
+        }
+        writePendingOutput()
+    }
+
+    /**
+     * Writes the rest of the channel. If nothing has been written yet and the response isn't compressed,
+     * the channel is passed to Jetty as the whole content of the response, which reads it straight into its own buffers.
+     */
+    fun write(channel: FileChannel) {
+        val nothingWritten = !isCompressionDecisionMade
+        val length = channel.size() - channel.position()
+        maybeCreateCompressionStreamOnFirstWrite(length.coerceIn(0, Int.MAX_VALUE.toLong()).toInt())
+        val origin = originStream
+        if (compressedStream == null && nothingWritten && origin is HttpOutput && !ctx.res().isCommitted) {
+            if (!ctx.res().containsHeader(Header.CONTENT_LENGTH)) ctx.res().setContentLengthLong(length)
+            origin.sendContent(channel)
+        } else {
+            Channels.newInputStream(channel).transferTo(this)
+        }
+    }
+
+    override fun setWriteListener(writeListener: WriteListener?) {
+        if (!isCompressionDecisionMade) pendingOutput = ByteArrayOutputStream()
+        originStream.setWriteListener(writeListener)
     }
 
-    override fun setWriteListener(writeListener: WriteListener?) = originStream.setWriteListener(writeListener)
     override fun isReady(): Boolean = originStream.isReady
+
+    /** Closes the compressed stream, which in non-blocking mode writes its end to the origin stream, so it has to be ready */
     override fun close() {
         compressedStream?.close()
+        writePendingOutput()
     }
 
 }
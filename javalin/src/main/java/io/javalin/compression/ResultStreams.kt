@@ -0,0 +1,140 @@
+package io.javalin.compression
+
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.util.concurrent.Flow
+import java.util.concurrent.LinkedBlockingQueue
+
+/**
+ * A result that [io.javalin.http.servlet.JavalinServlet] writes to the [CompressedOutputStream] of the response
+ * without copying it through an intermediate buffer. It's still an [InputStream], so it can be read
+ * like any other result (ex: with [io.javalin.http.Context.result]).
+ */
+internal sealed class DirectResultStream : InputStream() {
+    abstract fun writeTo(output: CompressedOutputStream)
+}
+
+/** The remaining bytes of a [ByteBuffer], which is not modified */
+internal class ByteBufferResultStream(buffer: ByteBuffer) : DirectResultStream() {
+
+    private val buffer = buffer.slice()
+    private var mark = 0
+
+    override fun writeTo(output: CompressedOutputStream) = output.write(buffer)
+
+    override fun read(): Int = if (buffer.hasRemaining()) buffer.get().toInt() and 0xFF else -1
+
+    override fun read(bytes: ByteArray, offset: Int, length: Int): Int {
+        if (length == 0) return 0
+        if (!buffer.hasRemaining()) return -1
+        val read = minOf(length, buffer.remaining())
+        buffer.get(bytes, offset, read)
+        return read
+    }
+
+    override fun skip(n: Long): Long {
+        val skipped = n.coerceIn(0, buffer.remaining().toLong()).toInt()
+        buffer.position(buffer.position() + skipped)
+        return skipped.toLong()
+    }
+
+    override fun available(): Int = buffer.remaining()
+    override fun markSupported(): Boolean = true
+    override fun mark(readlimit: Int) { mark = buffer.position() }
+    override fun reset() { buffer.position(mark) }
+
+}
+
+/**
+ * The rest of a [FileChannel], from its position when it's first used. The channel is opened by [open]
+ * once the stream is first used (ex: when the response is written), and closed with the stream.
+ */
+internal class FileChannelResultStream(private val open: () -> FileChannel) : DirectResultStream() {
+
+    private var opened: FileChannel? = null
+    private var stream: InputStream? = null
+    private var mark = 0L
+
+    private val channel: FileChannel
+        get() = opened ?: open().also { opened = it; mark = it.position() }
+
+    override fun writeTo(output: CompressedOutputStream) = output.write(channel)
+
+    override fun read(): Int = inputStream().read()
+    override fun read(bytes: ByteArray, offset: Int, length: Int): Int = inputStream().read(bytes, offset, length)
+    override fun available(): Int = channel.let { (it.size() - it.position()).coerceIn(0, Int.MAX_VALUE.toLong()).toInt() }
+    override fun markSupported(): Boolean = true
+    override fun mark(readlimit: Int) { mark = channel.position() }
+    override fun reset() { channel.position(mark) }
+    override fun close() { opened?.close() }
+
+    private fun inputStream(): InputStream = stream ?: Channels.newInputStream(channel).also { stream = it }
+
+}
+
+/**
+ * The items of a [Flow.Publisher], which [io.javalin.http.servlet.JavalinServlet] subscribes to when writing the response.
+ * Reading it as a stream subscribes to the publisher and blocks until items arrive, so it should only be read
+ * by code that replaces the result with what it read (ex: to cache it).
+ */
+internal class PublisherResultStream(val publisher: Flow.Publisher<out ByteBuffer>) : InputStream() {
+
+    private var subscriber: BlockingSubscriber? = null
+    private var current: ByteBuffer? = null
+
+    override fun read(): Int = nextBuffer()?.get()?.toInt()?.and(0xFF) ?: -1
+
+    override fun read(bytes: ByteArray, offset: Int, length: Int): Int {
+        if (length == 0) return 0
+        val buffer = nextBuffer() ?: return -1
+        val read = minOf(length, buffer.remaining())
+        buffer.get(bytes, offset, read)
+        return read
+    }
+
+    private fun nextBuffer(): ByteBuffer? {
+        val subscriber = subscriber ?: BlockingSubscriber().also { subscriber = it; publisher.subscribe(it) }
+        while (current?.hasRemaining() != true) {
+            current = subscriber.take() ?: return null
+        }
+        return current
+    }
+
+    override fun close() {
+        subscriber?.cancel()
+    }
+
+    private class BlockingSubscriber : Flow.Subscriber<ByteBuffer> {
+        private object End
+        private val signals = LinkedBlockingQueue<Any>()
+        @Volatile private var subscription: Flow.Subscription? = null
+        private var ended = false
+
+        override fun onSubscribe(subscription: Flow.Subscription) {
+            this.subscription = subscription
+            subscription.request(1)
+        }
+
+        override fun onNext(item: ByteBuffer) { signals.put(item) }
+        override fun onError(throwable: Throwable) { signals.put(throwable) }
+        override fun onComplete() { signals.put(End) }
+
+        fun take(): ByteBuffer? {
+            if (ended) return null
+            return when (val signal = signals.take()) {
+                is ByteBuffer -> signal.also { subscription?.request(1) }
+                is Throwable -> throw IOException("Result publisher failed", signal)
+                else -> {
+                    ended = true
+                    null
+                }
+            }
+        }
+
+        fun cancel() = subscription?.cancel()
+    }
+
+}
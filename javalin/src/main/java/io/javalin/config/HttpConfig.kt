@@ -21,4 +21,11 @@ class HttpConfig() {
     @JvmField var compressionStrategy = CompressionStrategy.GZIP
     //@formatter:on
 
+    /**
+     * Write results of at least this many bytes with non-blocking IO, so no thread is used while the client isn't reading
+     * (ex: large downloads to slow clients). Only results of a known size are written non-blocking, which are
+     * [String], [ByteArray], [java.nio.ByteBuffer] and file results. Disabled (null) by default.
+     */
+    @JvmField var nonBlockingWriteThreshold: Long? = null
+
 }
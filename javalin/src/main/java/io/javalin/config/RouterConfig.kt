@@ -33,6 +33,8 @@ class RouterConfig() {
     @JvmField var treatMultipleSlashesAsSingleSlash = false
     /** If true, treat '/PATH' and '/path' as the same path (default: false). */
     @JvmField var caseInsensitiveRoutes = false
+    /** The number of resolved routes (per method and path) to cache, 0 disables the cache (default: 0). */
+    @JvmField var routeCacheSize = 0
     // @formatter:on
 
     fun handlerWrapper(handlerWrapper: HandlerWrapper) {
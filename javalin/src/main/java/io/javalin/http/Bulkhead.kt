@@ -0,0 +1,143 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin.http
+
+import io.javalin.http.util.InterruptibleFuture
+import io.javalin.router.EndpointMetadata
+import io.javalin.util.ConcurrencyUtil
+import java.time.Duration
+import java.util.PriorityQueue
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Endpoint metadata that isolates the http-handlers of its endpoints from the rest of the server.
+ * The handlers are offloaded through [Context.future] onto the [executor] of the bulkhead, so a slow endpoint
+ * can only occupy [maxConcurrent] threads of its own, instead of the threads of the Jetty server.
+ *
+ * Requests that arrive while [maxConcurrent] handlers are running wait in a queue of at most [queueSize] requests,
+ * and are rejected with a [BulkheadFullResponse] once it is full. Queued requests of endpoints with a higher
+ * [Priority] are started first. A bulkhead can be shared by several endpoints, for example as a lane for critical routes.
+ *
+ * The executor uses platform threads by default, and can be any other executor, such as
+ * `ConcurrencyUtil.executorService(name, useLoom = true)` for virtual threads.
+ *
+ * ```kotlin
+ * val reports = Bulkhead("reports", maxConcurrent = 4, queueSize = 20)
+ * config.routes.addEndpoint(Endpoint.create(GET, "/reports").addMetadata(reports).handler { ... })
+ * ```
+ */
+class Bulkhead @JvmOverloads constructor(
+    val name: String,
+    val maxConcurrent: Int,
+    val queueSize: Int,
+    private val executor: Executor = ConcurrencyUtil.executorService("JavalinBulkhead-$name", useLoom = false),
+) : EndpointMetadata {
+
+    /** Endpoint metadata for the priority of an endpoint in the queue of its [Bulkhead], higher values are started first */
+    data class Priority(val value: Int) : EndpointMetadata
+
+    private class Pending(val priority: Int, val future: CompletableFuture<Void?>, val task: Runnable) {
+        val enqueuedNanos = System.nanoTime()
+        var sequence = 0L
+    }
+
+    private val lock = ReentrantLock()
+    private val queue = PriorityQueue<Pending>(compareByDescending<Pending> { it.priority }.thenBy { it.sequence }) // guarded by lock
+    private var running = 0 // guarded by lock
+    private var sequence = 0L // guarded by lock
+    private val rejectedRequests = AtomicLong()
+    private val startedRequests = AtomicLong()
+    private val totalWaitNanos = AtomicLong()
+
+    init {
+        require(maxConcurrent > 0) { "maxConcurrent must be positive" }
+        require(queueSize >= 0) { "queueSize must not be negative" }
+    }
+
+    /** The number of handlers that are currently running */
+    val active: Int
+        get() = lock.withLock { running }
+
+    /** The number of requests that are waiting for a handler to finish */
+    val queueDepth: Int
+        get() = lock.withLock { queue.size }
+
+    /** The number of requests that have been rejected because the queue was full */
+    val rejected: Long
+        get() = rejectedRequests.get()
+
+    /** The number of handlers that have been started */
+    val started: Long
+        get() = startedRequests.get()
+
+    /** The total time the started requests waited in the queue, which divided by [started] gives the average wait time */
+    val totalWaitTime: Duration
+        get() = Duration.ofNanos(totalWaitNanos.get())
+
+    /** Runs the handler on the executor of the bulkhead, and continues the request once it's done */
+    fun offload(ctx: Context, priority: Int, handler: Handler) {
+        ctx.future {
+            val future = InterruptibleFuture<Void?>() // a queued request is dropped if it's cancelled
+            submit(Pending(priority, future) { run(ctx, handler, future) })
+            future
+        }
+    }
+
+    private fun submit(pending: Pending) {
+        val startNow = lock.withLock {
+            when {
+                running < maxConcurrent -> true.also { running++ }
+                queue.size < queueSize -> false.also { pending.sequence = sequence++; queue.add(pending) }
+                else -> throw BulkheadFullResponse(name).also { rejectedRequests.incrementAndGet() }
+            }
+        }
+        when (startNow) {
+            true -> start(pending)
+            false -> pending.future.whenComplete { _, _ -> lock.withLock { queue.remove(pending) } } // ex: the request timed out while queued
+        }
+    }
+
+    private fun start(pending: Pending) {
+        startedRequests.incrementAndGet()
+        totalWaitNanos.addAndGet(System.nanoTime() - pending.enqueuedNanos)
+        try {
+            executor.execute(pending.task)
+        } catch (throwable: Throwable) { // ex: the executor was shut down
+            pending.future.completeExceptionally(throwable)
+            release()
+        }
+    }
+
+    private fun run(ctx: Context, handler: Handler, future: CompletableFuture<Void?>) {
+        try {
+            if (!future.isDone) handler.handle(ctx)
+            future.complete(null)
+        } catch (throwable: Throwable) {
+            future.completeExceptionally(throwable)
+        } finally {
+            release()
+        }
+    }
+
+    private fun release() {
+        val next = lock.withLock {
+            queue.poll().also { if (it == null) running-- }
+        }
+        next?.let { start(it) } // the slot is handed over to the next request
+    }
+
+}
+
+open class BulkheadFullResponse @JvmOverloads constructor(
+    name: String,
+    message: String = "Bulkhead $name is full",
+    details: Map<String, String> = mapOf()
+) : ServiceUnavailableResponse(message, details)
@@ -0,0 +1,142 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin.http
+
+import io.javalin.http.servlet.JavalinServletContext
+import io.javalin.http.util.HandlerHeaders
+import io.javalin.router.EndpointMetadata
+import org.eclipse.jetty.ee10.servlet.ServletContextHandler
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit.NANOSECONDS
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.Supplier
+
+/**
+ * Endpoint metadata that coalesces identical concurrent requests into a single execution of the http-handler (single-flight).
+ * Requests are identical if they have the same method, path, query string and values of the [headers].
+ *
+ * The first request (the leader) runs the handler, while the others wait for it through [Context.future].
+ * Once the handler and its future are done, the status, result and the headers the handler set are replayed to the waiting
+ * requests, which still run their own after-handlers. Headers a waiting request already set itself (ex: in a before-handler)
+ * are kept, and Set-Cookie headers are never replayed.
+ * If the leader fails, or doesn't finish within [maxWait], the waiting requests run the handler themselves,
+ * on [executor] (the thread pool of the Jetty server by default).
+ *
+ * Only use this for endpoints whose response doesn't depend on anything but the request key, such as expensive GETs.
+ *
+ * ```kotlin
+ * config.routes.addEndpoint(Endpoint.create(GET, "/products").addMetadata(Coalesce(Duration.ofSeconds(2))).handler { ... })
+ * ```
+ */
+class Coalesce @JvmOverloads constructor(
+    val maxWait: Duration,
+    val headers: List<String> = emptyList(),
+    private val executor: Executor? = null,
+) : EndpointMetadata {
+
+    private class Snapshot(val status: Int, val headers: HandlerHeaders, val result: ByteArray?)
+
+    private val flights = ConcurrentHashMap<String, CompletableFuture<Snapshot?>>()
+    private val coalescedRequests = AtomicLong()
+    private val waitingRequests = AtomicInteger()
+
+    /** The number of requests that waited for the handler of an identical request, instead of running it themselves */
+    val coalesced: Long
+        get() = coalescedRequests.get()
+
+    /** The number of requests that are currently waiting for the handler of an identical request */
+    val waiting: Int
+        get() = waitingRequests.get()
+
+    /** The number of handlers that are currently running as leader */
+    val inFlight: Int
+        get() = flights.size
+
+    /** Runs the handler, or waits for the handler of an identical request that is already running */
+    @JvmSynthetic
+    internal fun handle(ctx: JavalinServletContext, handler: Handler) {
+        val key = key(ctx)
+        val flight = CompletableFuture<Snapshot?>()
+        when (val leader = flights.putIfAbsent(key, flight)) {
+            null -> lead(ctx, key, flight, handler)
+            else -> follow(ctx, leader, handler)
+        }
+    }
+
+    private fun key(ctx: Context): String = buildString {
+        append(ctx.method().name()).append(' ').append(ctx.path())
+        ctx.queryString()?.let { append('?').append(it) }
+        headers.forEach { append('\n').append(ctx.header(it) ?: "") }
+    }
+
+    private fun lead(ctx: JavalinServletContext, key: String, flight: CompletableFuture<Snapshot?>, handler: Handler) {
+        val headersBefore = HandlerHeaders.capture(ctx.res()) // ex: set by the before-handlers of this request
+        try {
+            handler.handle(ctx)
+        } catch (throwable: Throwable) {
+            finish(key, flight, null)
+            throw throwable
+        }
+        val futureSupplier = ctx.userFutureSupplier ?: return finish(key, flight, snapshot(ctx, headersBefore))
+        ctx.userFutureSupplier = Supplier {
+            val userFuture = try {
+                futureSupplier.get()
+            } catch (throwable: Throwable) {
+                finish(key, flight, null)
+                throw throwable
+            }
+            val snapshotted = userFuture.whenComplete { _, error -> finish(key, flight, if (error == null) snapshot(ctx, headersBefore) else null) }
+            snapshotted.whenComplete { _, _ -> userFuture.cancel(true) } // forward timeouts, does nothing if the future is done
+            snapshotted
+        }
+    }
+
+    private fun finish(key: String, flight: CompletableFuture<Snapshot?>, snapshot: Snapshot?) {
+        flights.remove(key, flight)
+        flight.complete(snapshot)
+    }
+
+    private fun follow(ctx: JavalinServletContext, leader: CompletableFuture<Snapshot?>, handler: Handler) {
+        ctx.future {
+            waitingRequests.incrementAndGet()
+            leader.copy()
+                .completeOnTimeout(null, maxWait.toNanos(), NANOSECONDS)
+                .thenCompose { snapshot ->
+                    waitingRequests.decrementAndGet()
+                    when (snapshot) {
+                        null -> CompletableFuture.runAsync({ handler.handle(ctx) }, executor ?: jettyThreadPool(ctx)) // independent execution
+                        else -> CompletableFuture.completedFuture(snapshot.replay(ctx)).also { coalescedRequests.incrementAndGet() }
+                    }
+                }
+        }
+    }
+
+    private fun snapshot(ctx: JavalinServletContext, headersBefore: Map<String, List<String>>): Snapshot? {
+        if (ctx.hasOutputStream()) return null // written directly, so it can't be replayed
+        return try {
+            val result = ctx.resultInputStream()?.use { it.readBytes() }?.also { ctx.result(it) }
+            Snapshot(ctx.statusCode(), HandlerHeaders.since(headersBefore, ctx.res()), result)
+        } catch (_: Exception) {
+            null // the waiting requests run the handler themselves
+        }
+    }
+
+    private fun Snapshot.replay(ctx: Context) {
+        ctx.status(status)
+        headers.replay(ctx.res())
+        result?.let { ctx.result(it) }
+    }
+
+    private fun jettyThreadPool(ctx: Context): Executor =
+        ServletContextHandler.getServletContextHandler(ctx.req().servletContext)?.server?.threadPool
+            ?: throw IllegalStateException("Coalesce requires an executor when not running on a Jetty server")
+
+}
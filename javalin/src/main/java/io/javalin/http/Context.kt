@@ -6,6 +6,9 @@
 
 package io.javalin.http
 
+import io.javalin.compression.ByteBufferResultStream
+import io.javalin.compression.FileChannelResultStream
+import io.javalin.compression.PublisherResultStream
 import io.javalin.config.ContextResolverConfig.Companion.ContextResolverKey
 import io.javalin.config.Key
 import io.javalin.http.ContentType.APPLICATION_JSON
@@ -39,9 +42,16 @@ import jakarta.servlet.http.HttpServletRequest
 import jakarta.servlet.http.HttpServletResponse
 import java.io.InputStream
 import java.lang.reflect.Type
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
 import java.nio.charset.Charset
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.time.Duration
+import java.time.Instant
 import java.util.*
 import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Flow
 import java.util.function.Consumer
 import java.util.function.Supplier
 import java.util.stream.Stream
@@ -210,6 +220,13 @@ interface Context {
     /** Creates a typed [Validator] for the pathParam() value */
     fun <T> pathParamAsClass(key: String, clazz: Class<T>) = appData(ValidationKey).validator(key, clazz, pathParam(key))
 
+    /**
+     * Gets a path param as a long, throws [BadRequestResponse] if it isn't a valid long.
+     * Params declared with a numeric type (ex: `/users/{user-id:long}`) are validated during routing and parsed without boxing.
+     */
+    fun pathParamLong(key: String): Long =
+        pathParam(key).toLongOrNull() ?: throw BadRequestResponse("Path parameter '$key' is not a valid long")
+
     /** Gets a map of all the [pathParamAsClass] keys and values. */
     fun pathParamMap(): Map<String, String>
 
@@ -393,6 +410,35 @@ interface Context {
      */
     fun result(resultBytes: ByteArray): Context = result(resultBytes.inputStream())
 
+    /**
+     * Sets context result to the remaining bytes of the specified [ByteBuffer], which is not modified.
+     * The bytes are written in one call, and direct buffers are written without copying them to the heap.
+     * Will overwrite the current result if there is one.
+     */
+    fun result(resultBuffer: ByteBuffer): Context = result(ByteBufferResultStream(resultBuffer))
+
+    /**
+     * Sets context result to the rest of the specified [FileChannel], which is closed once the response is written.
+     * Uncompressed results are sent by Jetty straight from the channel, without copying them through a stream.
+     * Will overwrite the current result if there is one.
+     */
+    fun result(resultChannel: FileChannel): Context = result(FileChannelResultStream { resultChannel })
+
+    /**
+     * Sets context result to the content of the file at the specified [Path], see [result] for [FileChannel].
+     * The file is opened once the response is written, so nothing is left open if the result is replaced.
+     * Will overwrite the current result if there is one.
+     */
+    fun result(resultFile: Path): Context = result(FileChannelResultStream { FileChannel.open(resultFile, StandardOpenOption.READ) })
+
+    /**
+     * Sets context result to the items of the specified [Flow.Publisher], which is subscribed to when the response is written.
+     * Items are requested one at a time, once the previous one has been written, and the thread is released while
+     * waiting for the publisher or the client. The subscription is cancelled if the client disconnects.
+     * Will overwrite the current result if there is one.
+     */
+    fun result(resultPublisher: Flow.Publisher<out ByteBuffer>): Context = result(PublisherResultStream(resultPublisher))
+
     /**
      * Sets context result to the specified [InputStream].
      * Will overwrite the current result if there is one.
@@ -530,6 +576,12 @@ interface Context {
 
     fun routeRoles(): Set<RouteRole>
 
+    /** The time by which the request has to be handled, or null if the matched endpoint has no [Deadline] */
+    fun deadline(): Instant? = null
+
+    /** The time left until the [deadline] (negative once it has passed), or null if there is no deadline */
+    fun remainingTime(): Duration? = deadline()?.let { Duration.between(Instant.now(), it) }
+
 }
 
 /** Reified version of [Context.json] (Kotlin only) */
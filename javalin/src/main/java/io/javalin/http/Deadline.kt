@@ -0,0 +1,31 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin.http
+
+import io.javalin.router.EndpointMetadata
+import java.time.Duration
+
+/**
+ * Endpoint metadata that gives each request to the endpoint a deadline, counted from when the server received it.
+ * The deadline is available as [Context.deadline] and [Context.remainingTime].
+ *
+ * The deadline only applies to the http-handler and the [Context.future] it sets, other handlers always run.
+ * If it has already passed when the http-handler is reached (ex: because of slow before-handlers), the http-handler
+ * is skipped, and a [DeadlineExceededResponse] is handled by the exception mappers. If a [Context.future] is still
+ * pending once it passes, the request continues with the same exception, and the future itself is left as it is. Only work started by Javalin is cancelled: a running
+ * [Context.async] task is interrupted, a [SuspendHandler] is cancelled, and a request queued by a [Bulkhead] is dropped.
+ *
+ * ```kotlin
+ * config.routes.addEndpoint(Endpoint.create(GET, "/search").addMetadata(Deadline(Duration.ofSeconds(2))).handler { ... })
+ * ```
+ */
+data class Deadline(val timeout: Duration) : EndpointMetadata
+
+open class DeadlineExceededResponse @JvmOverloads constructor(
+    message: String = "Deadline exceeded",
+    details: Map<String, String> = mapOf()
+) : ServiceUnavailableResponse(message, details)
@@ -0,0 +1,74 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin.http
+
+import io.javalin.http.util.InterruptibleFuture
+import io.javalin.util.CoreDependency
+import io.javalin.util.DependencyUtil
+import io.javalin.util.Util
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.asCoroutineDispatcher
+import org.eclipse.jetty.ee10.servlet.ServletContextHandler
+import java.util.concurrent.CancellationException
+import java.util.concurrent.Executor
+import kotlin.coroutines.Continuation
+import kotlin.coroutines.intrinsics.createCoroutineUnintercepted
+import kotlin.coroutines.resume
+
+/**
+ * A handler for Kotlin coroutines, which can call suspending functions without blocking a thread while suspended.
+ * Requires the `kotlinx-coroutines-core` dependency.
+ *
+ * The handler starts on the request thread, and the request is finished synchronously if it never suspends.
+ * If it suspends, the request continues in async mode through [Context.future], and the handler resumes on [executor]
+ * (the thread pool of the Jetty server by default, which uses virtual threads if they are enabled).
+ * The coroutine is cancelled if the request times out (see [io.javalin.config.HttpConfig.asyncTimeout]),
+ * the connection fails, or the [Deadline] of the endpoint passes. Exceptions are handled by the exception mappers, like exceptions of other handlers.
+ *
+ * ```kotlin
+ * config.routes.get("/users/{id}", SuspendHandler { ctx -> ctx.json(userService.find(ctx.pathParam("id"))) })
+ * ```
+ */
+class SuspendHandler(
+    private val executor: Executor? = null,
+    private val handler: suspend (Context) -> Unit,
+) : Handler {
+
+    init {
+        if (!Util.classExists(CoreDependency.KOTLINX_COROUTINES.testClass)) {
+            throw IllegalStateException(DependencyUtil.missingDependencyMessage(CoreDependency.KOTLINX_COROUTINES))
+        }
+    }
+
+    @Volatile
+    private var dispatcher: Pair<Executor, CoroutineDispatcher>? = null
+
+    override fun handle(ctx: Context) {
+        ctx.future {
+            val future = InterruptibleFuture<Unit>()
+            val job = Job() // makes the coroutine cancellable, without a parent scope that outlives the request
+            future.whenComplete { _, error -> if (error is CancellationException) job.cancel() } // ex: the request timed out
+            handler.createCoroutineUnintercepted(ctx, Continuation(dispatcher(ctx) + job) { result ->
+                job.complete()
+                result.fold({ future.complete(Unit) }, { future.completeExceptionally(it) })
+            }).resume(Unit) // runs on this thread until it suspends, and is resumed on the dispatcher after that
+            future
+        }
+    }
+
+    private fun dispatcher(ctx: Context): CoroutineDispatcher {
+        val executor = executor ?: jettyThreadPool(ctx)
+        return dispatcher?.takeIf { it.first === executor }?.second
+            ?: executor.asCoroutineDispatcher().also { dispatcher = executor to it }
+    }
+
+    private fun jettyThreadPool(ctx: Context): Executor =
+        ServletContextHandler.getServletContextHandler(ctx.req().servletContext)?.server?.threadPool
+            ?: throw IllegalStateException("SuspendHandler requires an executor when not running on a Jetty server")
+
+}
@@ -1,87 +1,47 @@
 package io.javalin.http.servlet
 
-import io.javalin.http.HandlerType
+import io.javalin.http.Bulkhead
+import io.javalin.http.Coalesce
+import io.javalin.http.Deadline
+import io.javalin.http.DeadlineExceededResponse
 import io.javalin.http.HandlerType.GET
 import io.javalin.http.HandlerType.HEAD
 import io.javalin.http.MethodNotAllowedResponse
 import io.javalin.http.servlet.SubmitOrder.LAST
 import io.javalin.http.util.MethodNotAllowedUtil
-import io.javalin.router.Endpoint
 import io.javalin.router.EndpointNotFound
+import io.javalin.router.MatchResult
 import io.javalin.security.Roles
-import io.javalin.util.javalinLazy
 
 object DefaultTasks {
 
     val BEFORE = TaskInitializer<JavalinServletContext> { submitTask, servlet, ctx, requestUri ->
-        servlet.router.findHttpHandlerEntries(HandlerType.BEFORE, requestUri).forEach { entry ->
-            submitTask(LAST, Task(skipOnExceptionAndRedirect = true) { entry.handle(ctx, requestUri) })
+        servlet.routePlan(ctx, requestUri).before.forEach { match ->
+            submitTask(LAST, Task(skipOnExceptionAndRedirect = true) { match.handle(ctx) })
         }
     }
 
     val BEFORE_MATCHED = TaskInitializer<JavalinServletContext> { submitTask, servlet, ctx, requestUri ->
-        val httpHandlerOrNull by javalinLazy {
-            ctx.cachedHttpHandler { servlet.router.findFirstHttpHandlerEntry(ctx.method(), requestUri) }
-        }
-        val isResourceHandler = httpHandlerOrNull == null && (ctx.method() == HEAD || ctx.method() == GET)
-        val matchedRouteRoles by javalinLazy { httpHandlerOrNull?.endpoint?.metadata(Roles::class.java)?.roles ?: emptySet() }
-        val resourceRouteRoles by javalinLazy { servlet.cfg.resourceHandler?.resourceRouteRoles(ctx) ?: emptySet() }
-        val willMatch by javalinLazy {
-            ctx.setRouteRoles(if (isResourceHandler) resourceRouteRoles else matchedRouteRoles)
-            ctx.cachedWillMatch { servlet.willMatch(ctx, requestUri) }
-        }
-
-        servlet.router.findHttpHandlerEntries(HandlerType.BEFORE_MATCHED, requestUri).forEach { entry ->
-            if (willMatch) {
-                val httpHandler = httpHandlerOrNull
-                httpHandler?.let { ctx.endpoints().matchedHttpEndpointInternal = it.endpoint }
-                submitTask(LAST, Task(skipOnExceptionAndRedirect = true) {
-                    if (httpHandler != null && !entry.endpoint.hasPathParams() && httpHandler.endpoint.hasPathParams()) {
-                        entry.handleWithPathParams(ctx, httpHandler.extractPathParams(requestUri))
-                    } else {
-                        entry.handle(ctx, requestUri)
-                    }
-                })
+        val plan = servlet.routePlan(ctx, requestUri)
+        if (plan.beforeMatched.isNotEmpty() && servlet.prepareMatchedFilters(ctx, requestUri)) {
+            plan.beforeMatched.forEach { match ->
+                submitTask(LAST, Task(skipOnExceptionAndRedirect = true) { handleBeforeMatched(ctx, match, plan.http) })
             }
         }
     }
 
     val HTTP = TaskInitializer<JavalinServletContext> { submitTask, servlet, ctx, requestUri ->
-        val entry = ctx.cachedHttpHandler { servlet.router.findFirstHttpHandlerEntry(ctx.method(), requestUri) }
-        if (entry != null) {
-            submitTask(
-                LAST,
-                Task {
-                    val roles = entry.endpoint.metadata(Roles::class.java)?.roles ?: emptySet()
-                    ctx.setRouteRoles(roles)
-                    entry.handle(ctx, requestUri)
-                }
-            )
-            return@TaskInitializer
+        when (val match = servlet.routePlan(ctx, requestUri).http) {
+            null -> submitTask(LAST, Task { servlet.handleUnmatched(ctx, requestUri) })
+            else -> submitTask(LAST, Task { handleHttp(ctx, match) })
         }
-        submitTask(LAST, Task {
-            if (ctx.method() == HEAD && servlet.router.hasHttpHandlerEntry(GET, requestUri)) { // return 200, there is a get handler
-                return@Task
-            }
-            if (ctx.method() == HEAD || ctx.method() == GET) { // check for static resources (will write response if found)
-                if (servlet.cfg.resourceHandler?.handle(ctx) == true) return@Task
-                if (servlet.cfg.singlePageHandler.handle(ctx)) return@Task
-            }
-            // No match, status will be 404 or 405 after this point
-            // The endpoint will still be the placeholder with path ""
-            val availableHandlerTypes = MethodNotAllowedUtil.findAvailableHttpHandlerTypes(servlet.router, requestUri)
-            if (servlet.cfg.http.prefer405over404 && availableHandlerTypes.isNotEmpty()) {
-                throw MethodNotAllowedResponse(details = MethodNotAllowedUtil.availableHandlerTypes(ctx, availableHandlerTypes))
-            }
-            throw EndpointNotFound(method = ctx.method(), path = requestUri)
-        })
     }
 
     val AFTER_MATCHED = TaskInitializer<JavalinServletContext> { submitTask, servlet, ctx, requestUri ->
-        val didMatch by javalinLazy { ctx.cachedWillMatch { servlet.willMatch(ctx, requestUri) } }
-        servlet.router.findHttpHandlerEntries(HandlerType.AFTER_MATCHED, requestUri).forEach { entry ->
-            if (didMatch) {
-                submitTask(LAST, Task(skipOnExceptionAndRedirect = false) { entry.handle(ctx, requestUri) })
+        val plan = servlet.routePlan(ctx, requestUri)
+        if (plan.afterMatched.isNotEmpty() && ctx.cachedWillMatch { servlet.willMatch(ctx, requestUri) }) {
+            plan.afterMatched.forEach { match ->
+                submitTask(LAST, Task(skipOnExceptionAndRedirect = false) { match.handle(ctx) })
             }
         }
     }
@@ -91,19 +51,93 @@ object DefaultTasks {
     }
 
     val AFTER = TaskInitializer<JavalinServletContext> { submitTask, servlet, ctx, requestUri ->
-        servlet.router.findHttpHandlerEntries(HandlerType.AFTER, requestUri).forEach { entry ->
-            submitTask(LAST, Task(skipOnExceptionAndRedirect = false) { entry.handle(ctx, requestUri) })
+        servlet.routePlan(ctx, requestUri).after.forEach { match ->
+            submitTask(LAST, Task(skipOnExceptionAndRedirect = false) { match.handle(ctx) })
         }
     }
 
-    private fun JavalinServlet.willMatch(ctx: JavalinServletContext, requestUri: String) = when {
+    /** The default request lifecycle, which [JavalinServlet] runs from a precompiled [ExecutionPlan] */
+    @JvmSynthetic
+    internal val lifecycle = listOf(BEFORE, BEFORE_MATCHED, HTTP, AFTER_MATCHED, ERROR, AFTER)
+
+    /**
+     * Sets the route roles and the matched endpoint for the beforeMatched handlers.
+     * @return true if the request will match, which means the beforeMatched handlers should run
+     */
+    @JvmSynthetic
+    internal fun JavalinServlet.prepareMatchedFilters(ctx: JavalinServletContext, requestUri: String): Boolean {
+        val httpMatch = routePlan(ctx, requestUri).http
+        ctx.setRouteRoles(when {
+            httpMatch == null && (ctx.method() == HEAD || ctx.method() == GET) -> cfg.resourceHandler?.resourceRouteRoles(ctx) ?: emptySet()
+            else -> httpMatch?.entry?.endpoint?.metadata(Roles::class.java)?.roles ?: emptySet()
+        })
+        val willMatch = ctx.cachedWillMatch { willMatch(ctx, requestUri) }
+        if (willMatch && httpMatch != null) {
+            ctx.endpoints().matchedHttpEndpointInternal = httpMatch.entry.endpoint
+        }
+        return willMatch
+    }
+
+    @JvmSynthetic
+    internal fun handleBeforeMatched(ctx: JavalinServletContext, match: MatchResult, httpMatch: MatchResult?) {
+        if (httpMatch != null && !match.hasPathParams() && httpMatch.hasPathParams()) {
+            match.entry.handle(ctx, httpMatch) // expose the path params of the http handler
+        } else {
+            match.handle(ctx)
+        }
+    }
+
+    @JvmSynthetic
+    internal fun handleHttp(ctx: JavalinServletContext, match: MatchResult) {
+        if (ctx.httpHandlerSkipped) return
+        val endpoint = match.entry.endpoint
+        endpoint.metadata(Deadline::class.java)?.let { deadline ->
+            ctx.startDeadline(deadline) // still counted from when the request was received
+            if (ctx.deadlineExceeded()) throw DeadlineExceededResponse()
+        }
+        val roles = endpoint.metadata(Roles::class.java)?.roles ?: emptySet()
+        ctx.setRouteRoles(roles)
+        val coalesce = endpoint.metadata(Coalesce::class.java)
+        val bulkhead = endpoint.metadata(Bulkhead::class.java)
+        when {
+            coalesce != null && bulkhead != null -> coalesce.handle(ctx) { bulkhead.offload(ctx, endpoint.metadata(Bulkhead.Priority::class.java)?.value ?: 0) { match.handle(ctx) } }
+            coalesce != null -> coalesce.handle(ctx) { match.handle(ctx) }
+            bulkhead != null -> bulkhead.offload(ctx, endpoint.metadata(Bulkhead.Priority::class.java)?.value ?: 0) { match.handle(ctx) }
+            else -> match.handle(ctx)
+        }
+    }
+
+    @JvmSynthetic
+    internal fun JavalinServlet.handleUnmatched(ctx: JavalinServletContext, requestUri: String) {
+        if (ctx.method() == HEAD && router.hasHttpHandlerEntry(GET, requestUri)) { // return 200, there is a get handler
+            return
+        }
+        if (ctx.method() == HEAD || ctx.method() == GET) { // check for static resources (will write response if found)
+            if (cfg.resourceHandler?.handle(ctx) == true) return
+            if (cfg.singlePageHandler.handle(ctx)) return
+        }
+        // No match, status will be 404 or 405 after this point
+        // The endpoint will still be the placeholder with path ""
+        if (cfg.http.prefer405over404) {
+            val allowedMethods = router.findAllowedMethods(requestUri)
+            if (!allowedMethods.isEmpty()) {
+                throw MethodNotAllowedResponse(details = MethodNotAllowedUtil.availableHandlerTypes(ctx, allowedMethods))
+            }
+        }
+        throw EndpointNotFound(method = ctx.method(), path = requestUri)
+    }
+
+    @JvmSynthetic
+    internal fun JavalinServlet.willMatch(ctx: JavalinServletContext, requestUri: String) = when {
         ctx.method() == HEAD && this.router.hasHttpHandlerEntry(GET, requestUri) -> true
-        ctx.cachedHttpHandler { this.router.findFirstHttpHandlerEntry(ctx.method(), requestUri) } != null -> true
+        routePlan(ctx, requestUri).http != null -> true
         this.cfg.resourceHandler?.canHandle(ctx) == true -> true
         this.cfg.singlePageHandler.canHandle(ctx) -> true
         else -> false
     }
 
-}
+    @JvmSynthetic
+    internal fun JavalinServlet.routePlan(ctx: JavalinServletContext, requestUri: String) =
+        ctx.cachedRoutePlan { this.router.findRoutePlan(ctx.method(), requestUri) }
 
-internal fun Endpoint.hasPathParams() = this.path.contains("{") || this.path.contains("<")
+}
@@ -0,0 +1,109 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin.http.servlet
+
+import io.javalin.http.servlet.DefaultTasks.handleBeforeMatched
+import io.javalin.http.servlet.DefaultTasks.handleHttp
+import io.javalin.http.servlet.DefaultTasks.handleUnmatched
+import io.javalin.http.servlet.DefaultTasks.prepareMatchedFilters
+import io.javalin.http.servlet.DefaultTasks.routePlan
+import io.javalin.http.servlet.DefaultTasks.willMatch
+import io.javalin.router.RoutePlan
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * The steps of the default request lifecycle ([DefaultTasks.lifecycle]) for a [RoutePlan].
+ *
+ * A plan only depends on the number of handlers in each list of the route plan (its shape), not on the handlers themselves.
+ * Its steps refer to the handlers by index, and the matches of a request are bound by the [JavalinServletContext],
+ * so each shape is compiled once and shared by all requests.
+ *
+ * Instead of creating a [Task] per handler on every request, [JavalinServlet] walks the steps of the plan
+ * with an index stored on the [JavalinServletContext]. Exceptions, redirects and [JavalinServletContext.skipRemainingHandlers]
+ * move that index instead of mutating the task queue, which is still used for tasks submitted while handling the request.
+ */
+internal class ExecutionPlan private constructor(
+    private val matchedSteps: Array<Step>, // used when the beforeMatched and afterMatched handlers should run
+    private val unmatchedSteps: Array<Step>,
+) {
+
+    enum class Phase(val skipOnExceptionAndRedirect: Boolean) {
+        BEFORE(true),
+        BEFORE_MATCHED(true),
+        HTTP(true),
+        UNMATCHED(true),
+        AFTER_MATCHED(false),
+        ERROR(false),
+        AFTER(false),
+    }
+
+    /** A step of the plan, [index] is the position of its handler in the list of the [RoutePlan] for its phase */
+    class Step(@JvmField val phase: Phase, private val index: Int) {
+        fun run(servlet: JavalinServlet, ctx: JavalinServletContext, requestUri: String, routePlan: RoutePlan) {
+            when (phase) {
+                Phase.BEFORE -> routePlan.before[index].handle(ctx)
+                Phase.BEFORE_MATCHED -> handleBeforeMatched(ctx, routePlan.beforeMatched[index], routePlan.http)
+                Phase.HTTP -> handleHttp(ctx, routePlan.http!!)
+                Phase.UNMATCHED -> servlet.handleUnmatched(ctx, requestUri)
+                Phase.AFTER_MATCHED -> routePlan.afterMatched[index].handle(ctx)
+                Phase.ERROR -> servlet.router.handleHttpError(ctx.statusCode(), ctx)
+                Phase.AFTER -> routePlan.after[index].handle(ctx)
+            }
+        }
+    }
+
+    companion object {
+
+        /**
+         * Makes the servlet context execute the default lifecycle for its request.
+         * This performs the same request dependent checks the [DefaultTasks] initializers do.
+         */
+        fun prepare(servlet: JavalinServlet, ctx: JavalinServletContext, requestUri: String) {
+            val routePlan = servlet.routePlan(ctx, requestUri)
+            val plan = of(routePlan)
+            val willMatch = when {
+                routePlan.beforeMatched.isNotEmpty() -> servlet.prepareMatchedFilters(ctx, requestUri)
+                routePlan.afterMatched.isNotEmpty() -> ctx.cachedWillMatch { servlet.willMatch(ctx, requestUri) }
+                else -> true
+            }
+            ctx.startExecutionPlan(if (willMatch) plan.matchedSteps else plan.unmatchedSteps, routePlan, requestUri)
+        }
+
+        /** Compiled plans by the shape of their route plan, they hold no handlers, so they're shared by all routers */
+        private val plans = ConcurrentHashMap<Long, ExecutionPlan>()
+
+        private const val MAX_SHAPE_COUNT = 0x7FFF // 15 bits per list
+
+        @JvmSynthetic
+        internal fun of(plan: RoutePlan): ExecutionPlan {
+            val before = plan.before.size
+            val beforeMatched = plan.beforeMatched.size
+            val afterMatched = plan.afterMatched.size
+            val after = plan.after.size
+            if (maxOf(before, beforeMatched, afterMatched, after) > MAX_SHAPE_COUNT) return compile(plan) // doesn't fit in a shape
+            val shape = (if (plan.http != null) 1L shl 60 else 0L) or (before.toLong() shl 45) or
+                (beforeMatched.toLong() shl 30) or (afterMatched.toLong() shl 15) or after.toLong()
+            return plans[shape] ?: plans.computeIfAbsent(shape) { compile(plan) }
+        }
+
+        private fun compile(plan: RoutePlan): ExecutionPlan {
+            fun steps(includeMatchedFilters: Boolean): Array<Step> = buildList {
+                plan.before.indices.forEach { add(Step(Phase.BEFORE, it)) }
+                if (includeMatchedFilters) plan.beforeMatched.indices.forEach { add(Step(Phase.BEFORE_MATCHED, it)) }
+                add(if (plan.http != null) Step(Phase.HTTP, 0) else Step(Phase.UNMATCHED, 0))
+                if (includeMatchedFilters) plan.afterMatched.indices.forEach { add(Step(Phase.AFTER_MATCHED, it)) }
+                add(Step(Phase.ERROR, 0))
+                plan.after.indices.forEach { add(Step(Phase.AFTER, it)) }
+            }.toTypedArray()
+            val matchedSteps = steps(includeMatchedFilters = true)
+            val hasMatchedFilters = plan.beforeMatched.isNotEmpty() || plan.afterMatched.isNotEmpty()
+            return ExecutionPlan(matchedSteps, if (hasMatchedFilters) steps(includeMatchedFilters = false) else matchedSteps)
+        }
+
+    }
+
+}
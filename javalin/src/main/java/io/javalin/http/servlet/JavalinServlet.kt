@@ -6,8 +6,12 @@
 
 package io.javalin.http.servlet
 
+import io.javalin.compression.CompressedOutputStream
+import io.javalin.compression.DirectResultStream
+import io.javalin.compression.PublisherResultStream
 import io.javalin.config.JavalinState
 import io.javalin.http.Context
+import io.javalin.http.DeadlineExceededResponse
 import io.javalin.http.HttpStatus.INTERNAL_SERVER_ERROR
 import io.javalin.http.HttpStatus.REQUEST_TIMEOUT
 import io.javalin.http.servlet.SubmitOrder.FIRST
@@ -15,10 +19,20 @@ import io.javalin.http.servlet.SubmitOrder.LAST
 import io.javalin.http.util.AsyncUtil.isAsync
 import io.javalin.http.util.AsyncUtil.newAsyncListener
 import io.javalin.http.util.ETagGenerator
+import io.javalin.http.util.InterruptibleFuture
+import io.javalin.util.NamedThreadFactory
 import io.javalin.util.javalinLazy
 import jakarta.servlet.http.HttpServlet
 import jakarta.servlet.http.HttpServletRequest
 import jakarta.servlet.http.HttpServletResponse
+import org.eclipse.jetty.ee10.servlet.ServletContextRequest
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit.NANOSECONDS
 
 /**
  * Handles HTTP requests with sync/async support.
@@ -32,44 +46,72 @@ class JavalinServlet(val cfg: JavalinState) : HttpServlet() {
 
     val requestLifecycle = cfg.servletRequestLifecycle.toList()
     val router = cfg.internalRouter
+    private val initializersBeforeDefaultLifecycle = when (requestLifecycle.takeLast(DefaultTasks.lifecycle.size)) { // run from precompiled plans instead of tasks
+        DefaultTasks.lifecycle -> requestLifecycle.dropLast(DefaultTasks.lifecycle.size) // ex: added by plugins
+        else -> null
+    }
     private val servletContextConfig by javalinLazy { JavalinServletContextConfig.of(cfg) }
 
+    private companion object {
+        val deadlineTimer: ScheduledExecutorService by javalinLazy {
+            // most timers are cancelled long before they run out, so they're removed from the queue when cancelled
+            ScheduledThreadPoolExecutor(1, NamedThreadFactory("JavalinDeadlineTimer")).apply { removeOnCancelPolicy = true }
+        }
+    }
+
+    init {
+        router.startServing() // requests can run concurrently with route changes from now on
+    }
+
     override fun service(request: HttpServletRequest, response: HttpServletResponse) {
         handle(JavalinServletRequest(request), response)
     }
 
     fun handle(request: HttpServletRequest, response: HttpServletResponse): Context? {
         try {
-            val ctx = JavalinServletContext(
-                cfg = servletContextConfig,
-                req = request,
-                res = response
-            )
+            return JavalinServletContext(cfg = servletContextConfig, req = request, res = response).also { process(it) }
+        } catch (throwable: Throwable) {
+            router.handleHttpUnexpectedThrowable(response, throwable)
+            return null
+        }
+    }
 
+    private fun process(ctx: JavalinServletContext) {
+        val requestUri = ctx.path().removePrefix(ctx.contextPath())
+        val initializers = initializersBeforeDefaultLifecycle ?: requestLifecycle
+        if (initializers.isNotEmpty()) {
             val submitTask: (SubmitOrder, Task) -> Unit = { order, task ->
                 when (order) {
                     FIRST -> ctx.tasks.offerFirst(task)
                     LAST -> ctx.tasks.add(task)
                 }
             }
-            val requestUri = ctx.path().removePrefix(ctx.contextPath())
-            requestLifecycle.forEach { it.createTasks(submitTask, this, ctx, requestUri) }
-
-            ctx.handleSync()
-            return ctx
-        } catch (throwable: Throwable) {
-            router.handleHttpUnexpectedThrowable(response, throwable)
-            return null
+            initializers.forEach { it.createTasks(submitTask, this, ctx, requestUri) }
+        }
+        if (initializersBeforeDefaultLifecycle != null) {
+            ctx.deferExecutionPlan(requestUri) // the submitted tasks run before the request is routed (ex: a concurrency limiter)
         }
+
+        ctx.handleSync()
     }
 
     private fun JavalinServletContext.handleSync() {
-        while (userFutureSupplier == null && tasks.isNotEmpty()) {
+        while (userFutureSupplier == null) {
             val task = tasks.poll()
+            if (task == null) { // tasks submitted while handling the request run before the remaining steps of the plan
+                if (executionPlanDeferred) {
+                    executionPlanDeferred = false
+                    handleTask { ExecutionPlan.prepare(this@JavalinServlet, this, plannedRequestUri) }
+                    continue
+                }
+                val step = nextPlannedStep() ?: break
+                handleTask { step.run(this@JavalinServlet, this, plannedRequestUri, plannedRoutePlan!!) } // set with the steps
+                continue
+            }
             if (exceptionOccurred && task.skipOnExceptionAndRedirect) {
                 continue
             }
-            handleTask(task.handler)
+            handleTask { task.handler.handle() }
         }
         when {
             userFutureSupplier != null -> handleUserFuture()
@@ -79,12 +121,26 @@ class JavalinServlet(val cfg: JavalinState) : HttpServlet() {
 
     private fun JavalinServletContext.handleUserFuture() {
         val userFutureSupplier = userFutureSupplier!!.also { userFutureSupplier = null } // nullcheck in handleSync
-        if (!isAsync()) startAsyncAndAddDefaultTimeoutListeners() // start async if not already started
+        val request = req() as? JavalinServletRequest
+        if (!isAsync()) when (request) { // start async if not already started, or when the supplier needs it
+            null -> startAsyncAndAddDefaultTimeoutListeners()
+            else -> request.startAsyncOnDemand = { startAsyncAndAddDefaultTimeoutListeners() }
+        }
 
-        val userFuture = handleTask { userFutureSupplier.get() } ?: return handleSync() // get future from supplier or handle error
-        req().asyncContext.addListener(newAsyncListener(onTimeout = { userFuture.cancel(true) })) // cancel user's future if timeout occurs
+        val userFuture = try {
+            handleTask { userFutureSupplier.get() } ?: return handleSync() // get future from supplier or handle error
+        } finally {
+            request?.startAsyncOnDemand = null
+        }
+        if (userFuture.isDone) return handleCompletedFuture(userFuture) // continue on this thread, without servlet async mode
+        if (!isAsync()) startAsyncAndAddDefaultTimeoutListeners()
+        req().asyncContext.addListener(newAsyncListener( // cancel user's future if timeout occurs, or the connection fails
+            onTimeout = { userFuture.cancel(true) },
+            onError = { userFuture.cancel(true) },
+        ))
+        val requestFuture = remainingTime()?.let { remaining -> withDeadline(userFuture, remaining.toNanos()) } ?: userFuture
 
-        userFuture
+        requestFuture
             .thenApply { handleSync() }
             .exceptionally {
                 exceptionOccurred = true
@@ -93,6 +149,27 @@ class JavalinServlet(val cfg: JavalinState) : HttpServlet() {
             }
     }
 
+    /** A copy of the user's future that fails once the deadline has passed, which leaves the user's future as it is */
+    private fun withDeadline(userFuture: CompletableFuture<*>, remainingNanos: Long): CompletableFuture<*> {
+        val copy = userFuture.copy()
+        val timer = deadlineTimer.schedule({ copy.completeExceptionally(DeadlineExceededResponse()) }, remainingNanos, NANOSECONDS)
+        copy.whenComplete { _, error ->
+            timer.cancel(false)
+            if (error is DeadlineExceededResponse && userFuture is InterruptibleFuture) userFuture.cancel(true) // ex: interrupt ctx.async
+        }
+        return copy
+    }
+
+    private fun JavalinServletContext.handleCompletedFuture(userFuture: CompletableFuture<*>) {
+        try {
+            userFuture.join()
+        } catch (throwable: Throwable) { // same exception as an async future passes to exceptionally()
+            exceptionOccurred = true
+            router.handleHttpException(this, throwable as? CompletionException ?: CompletionException(throwable))
+        }
+        handleSync()
+    }
+
     private fun JavalinServletContext.startAsyncAndAddDefaultTimeoutListeners() = req().startAsync().also {
         it.timeout = cfg.http.asyncTimeout
         it.addListener(newAsyncListener(onTimeout = { // a timeout avoids the pipeline - we need to handle it manually + it's not thread-safe
@@ -103,9 +180,9 @@ class JavalinServlet(val cfg: JavalinState) : HttpServlet() {
         }))
     }
 
-    private fun <R> JavalinServletContext.handleTask(handler: TaskHandler<R>): R? =
+    private inline fun <R> JavalinServletContext.handleTask(handler: () -> R): R? =
         try {
-            handler.handle()
+            handler()
         } catch (throwable: Throwable) {
             exceptionOccurred = true
             userFutureSupplier = null
@@ -114,20 +191,96 @@ class JavalinServlet(val cfg: JavalinState) : HttpServlet() {
         }
 
     private fun JavalinServletContext.writeResponseAndLog() {
+        var writingNonBlocking = false
         try {
             if (responseWritten.getAndSet(true)) return // prevent writing more than once, it's required because timeout listener can terminate the flow at any time
-            resultInputStream()?.use { resultStream ->
-                val etagWritten = ETagGenerator.tryWriteEtagAndClose(cfg.http.generateEtags, this, resultStream)
-                if (!etagWritten) resultStream.copyTo(outputStream(), cfg.http.responseBufferSize ?: 32_768) // default should never happen, we add a fallback just in case
+            val resultStream = resultInputStream()
+            if (resultStream != null) {
+                try {
+                    val etagWritten = ETagGenerator.tryWriteEtagAndClose(cfg.http.generateEtags, this, resultStream)
+                    if (!etagWritten && writesNonBlocking(resultStream)) {
+                        writeResultNonBlocking(resultStream) // finishes the response and closes the result once it's written
+                        writingNonBlocking = true
+                        return
+                    }
+                    if (!etagWritten) writeResult(resultStream)
+                } finally {
+                    if (!writingNonBlocking) resultStream.close()
+                }
             }
-            val executionTime = executionTimeMs()
-            cfg.httpRequestLoggers.forEach { it.handle(this, executionTime) }
+            logRequest()
         } catch (throwable: Throwable) {
             router.handleHttpUnexpectedThrowable(res(), throwable) // handle any unexpected error, e.g. write failure
         } finally {
-            if (outputStreamWrapper.isInitialized()) outputStream().close() // close initialized output wrappers
+            if (!writingNonBlocking) finishResponse()
+        }
+    }
+
+    private fun JavalinServletContext.logRequest() {
+        val executionTime = executionTimeMs()
+        cfg.httpRequestLoggers.forEach { it.handle(this, executionTime) }
+    }
+
+    private fun JavalinServletContext.finishResponse() {
+        try {
+            if (hasOutputStream()) outputStream().close() // close initialized output wrappers
+        } finally {
             if (isAsync()) req().asyncContext.complete() // guarantee completion of async context to eliminate the possibility of hanging connections
         }
     }
 
+    private fun writesNonBlocking(resultStream: InputStream): Boolean {
+        if (resultStream is PublisherResultStream) return true
+        val threshold = cfg.http.nonBlockingWriteThreshold ?: return false
+        return (resultStream is ByteArrayInputStream || resultStream is DirectResultStream) && resultStream.available() >= threshold
+    }
+
+    private fun JavalinServletContext.writeResultNonBlocking(resultStream: InputStream) {
+        val asyncContext = if (isAsync()) req().asyncContext else req().startAsync()
+        asyncContext.timeout = 0 // the client may read slowly, stalled connections are closed by the idle timeout of Jetty
+        val onDone: (Throwable?) -> Unit = { error ->
+            try {
+                resultStream.close()
+                if (error == null) logRequest()
+            } finally {
+                if (error == null) finishResponse() else failResponse(error)
+            }
+        }
+        val output = outputStream()
+        if (resultStream is PublisherResultStream && output is CompressedOutputStream) {
+            val writer = PublisherResultWriter(output, onDone)
+            asyncContext.addListener(newAsyncListener(onError = { writer.onError(it.throwable) })) // cancels the subscription if the client disconnects
+            output.setWriteListener(writer)
+            output.decideCompressionForUnknownLength() // the size of the first item says nothing about the size of the result
+            resultStream.publisher.subscribe(writer.subscriber)
+        } else {
+            output.setWriteListener(NonBlockingResultWriter(resultStream, output, cfg.http.responseBufferSize ?: 32_768, onDone))
+        }
+    }
+
+    /**
+     * Ends a response whose result failed mid-write, without closing it like a complete response.
+     * A committed response is aborted, so the client sees a broken response instead of a truncated one that looks complete.
+     */
+    private fun JavalinServletContext.failResponse(error: Throwable) {
+        try {
+            router.handleHttpUnexpectedThrowable(res(), error) // logs the error
+            when {
+                res().isCommitted -> runCatching { ServletContextRequest.getServletContextRequest(req()) }.getOrNull()?.servletChannel?.abort(error) // null if not a Jetty request (ex: a mock)
+                else -> res().sendError(INTERNAL_SERVER_ERROR.code) // discards the buffered output, ex: a partially compressed result
+            }
+        } finally {
+            if (isAsync()) req().asyncContext.complete()
+        }
+    }
+
+    private fun JavalinServletContext.writeResult(resultStream: InputStream) {
+        val output = outputStream()
+        when {
+            resultStream is ByteArrayInputStream -> resultStream.transferTo(output) // a single write of the array, without a copy buffer
+            resultStream is DirectResultStream && output is CompressedOutputStream -> resultStream.writeTo(output)
+            else -> resultStream.copyTo(output, cfg.http.responseBufferSize ?: 32_768) // default should never happen, we add a fallback just in case
+        }
+    }
+
 }
@@ -14,6 +14,7 @@ import io.javalin.config.Key
 import io.javalin.config.MultipartConfig
 import io.javalin.http.ContentType
 import io.javalin.http.Context
+import io.javalin.http.Deadline
 import io.javalin.http.HandlerType
 import io.javalin.http.Header
 import io.javalin.http.HttpStatus
@@ -22,17 +23,22 @@ import io.javalin.plugin.ContextPlugin
 import io.javalin.plugin.PluginManager
 import io.javalin.router.Endpoint
 import io.javalin.router.Endpoints
-import io.javalin.router.ParsedEndpoint
+import io.javalin.router.MatchResult
+import io.javalin.router.RoutePlan
+import io.javalin.router.matcher.PathParamMap
 import io.javalin.security.BasicAuthCredentials
 import io.javalin.security.RouteRole
 import io.javalin.util.javalinLazy
 import jakarta.servlet.ServletOutputStream
 import jakarta.servlet.http.HttpServletRequest
 import jakarta.servlet.http.HttpServletResponse
+import org.eclipse.jetty.ee10.servlet.ServletContextRequest
 import java.io.InputStream
 import java.net.URI
 import java.net.URLDecoder
 import java.nio.charset.Charset
+import java.time.Duration
+import java.time.Instant
 import java.util.*
 import java.util.concurrent.CompletableFuture
 import java.util.concurrent.atomic.AtomicBoolean
@@ -93,33 +99,98 @@ open class JavalinServletContext(
         return cachedWillMatchState == 1
     }
 
-    private var cachedHttpHandlerValue: Any? = UNSET
+    /** The steps of the [ExecutionPlan] this request runs, walked with [plannedStepIndex] */
+    private var plannedSteps: Array<ExecutionPlan.Step>? = null
+    private var plannedStepIndex = 0
+    private var redirectedFromBeforeHandler = false
 
+    @get:JvmSynthetic
+    internal var plannedRequestUri = ""
+        private set
+
+    /** Set until the [ExecutionPlan] is prepared, which happens once the tasks submitted before it have run */
     @JvmSynthetic
-    @Suppress("UNCHECKED_CAST")
-    internal inline fun cachedHttpHandler(lookup: () -> ParsedEndpoint?): ParsedEndpoint? {
-        if (cachedHttpHandlerValue === UNSET) {
-            cachedHttpHandlerValue = lookup()
+    internal var executionPlanDeferred = false
+
+    @JvmSynthetic
+    internal fun deferExecutionPlan(requestUri: String) {
+        executionPlanDeferred = true
+        plannedRequestUri = requestUri
+    }
+
+    /** The handlers the steps of the [ExecutionPlan] refer to */
+    @get:JvmSynthetic
+    internal var plannedRoutePlan: RoutePlan? = null
+        private set
+
+    @JvmSynthetic
+    internal fun startExecutionPlan(steps: Array<ExecutionPlan.Step>, routePlan: RoutePlan, requestUri: String) {
+        plannedSteps = steps
+        plannedStepIndex = 0
+        plannedRoutePlan = routePlan
+        plannedRequestUri = requestUri
+    }
+
+    /** The next step of the execution plan that should run, or null if there are no more steps */
+    @JvmSynthetic
+    internal fun nextPlannedStep(): ExecutionPlan.Step? {
+        val steps = plannedSteps ?: return null
+        while (plannedStepIndex < steps.size) {
+            val step = steps[plannedStepIndex++]
+            if ((exceptionOccurred || redirectedFromBeforeHandler) && step.phase.skipOnExceptionAndRedirect) continue
+            return step
         }
-        return cachedHttpHandlerValue as ParsedEndpoint?
+        return null
     }
 
-    @PublishedApi
-    internal companion object {
-        @PublishedApi
-        internal val UNSET = Any()
+    /** The deadline of the request as a [System.nanoTime] value, only set if [hasDeadline] */
+    private var deadlineNanos = 0L
+    private var hasDeadline = false
+
+    /** Starts the deadline of the endpoint, counted from when the server received the request */
+    @JvmSynthetic
+    internal fun startDeadline(deadline: Deadline) {
+        val receivedNanos = try {
+            ServletContextRequest.getServletContextRequest(req)?.beginNanoTime
+        } catch (_: Exception) {
+            null // not a Jetty request (ex: a mock)
+        }
+        deadlineNanos = (receivedNanos ?: System.nanoTime()) + deadline.timeout.toNanos()
+        hasDeadline = true
     }
 
+    @JvmSynthetic
+    internal fun deadlineExceeded(): Boolean = hasDeadline && System.nanoTime() - deadlineNanos >= 0
+
+    override fun deadline(): Instant? = if (hasDeadline) Instant.now().plusNanos(deadlineNanos - System.nanoTime()) else null
+
+    override fun remainingTime(): Duration? = if (hasDeadline) Duration.ofNanos(deadlineNanos - System.nanoTime()) else null
+
+    private var cachedRoutePlanValue: RoutePlan? = null
+
+    /** The handlers matching this request, resolved once and shared by all tasks */
+    @JvmSynthetic
+    internal inline fun cachedRoutePlan(lookup: () -> RoutePlan): RoutePlan =
+        cachedRoutePlanValue ?: lookup().also { cachedRoutePlanValue = it }
+
     init {
         contentType(cfg.defaultContentType)
     }
 
-    fun executionTimeMs(): Float = if (startTimeNanos == null) -1f else (System.nanoTime() - startTimeNanos) / 1000000f
+    fun executionTimeMs(): Float = when (val startTimeNanos = startTimeNanos) {
+        null -> -1f
+        else -> (System.nanoTime() - startTimeNanos) / 1000000f
+    }
 
     fun update(endpoint: Endpoint, pathParams: Map<String, String> = emptyMap()) = also {
         endpoints.add(endpoint, pathParams)
     }
 
+    @JvmSynthetic
+    internal fun update(endpoint: Endpoint, match: MatchResult) = also {
+        endpoints.add(endpoint, match)
+    }
+
     override fun req(): HttpServletRequest = req
     override fun res(): HttpServletResponse = res
 
@@ -156,8 +227,15 @@ open class JavalinServletContext(
         return cfg.strictContentTypes
     }
 
-    override fun pathParamMap(): Map<String, String> =
-        Collections.unmodifiableMap(endpoints.lastPathParams)
+    override fun pathParamMap(): Map<String, String> = when (val pathParams = endpoints.lastPathParams) {
+        is PathParamMap -> pathParams // already read-only
+        else -> Collections.unmodifiableMap(pathParams)
+    }
+
+    override fun pathParamLong(key: String): Long = when (val match = endpoints.lastMatch) {
+        null -> super.pathParamLong(key)
+        else -> match.pathParamLong(key.removePrefix("{").removeSuffix("}"))
+    }
 
     override fun pathParam(key: String): String =
         pathParamOrThrow(endpoints.lastPathParams, key, endpoints.lastMatchedEndpoint?.path ?: "")
@@ -166,10 +244,14 @@ open class JavalinServletContext(
     private val queryParams by javalinLazy { super.queryParamMap() }
     override fun queryParamMap(): Map<String, List<String>> = queryParams
 
-    internal val outputStreamWrapper = javalinLazy(SYNCHRONIZED) {
+    private val outputStreamWrapper = javalinLazy(SYNCHRONIZED) {
         CompressedOutputStream(minSizeForCompression, cfg.compressionStrategy, this)
     }
 
+    /** If [outputStream] has been called, so the output stream has to be closed when the response is written */
+    @JvmSynthetic
+    internal fun hasOutputStream(): Boolean = outputStreamWrapper.isInitialized()
+
     override fun outputStream(): ServletOutputStream = outputStreamWrapper.value
 
     override fun minSizeForCompression(minSizeForCompression: Int) = also {
@@ -180,6 +262,7 @@ open class JavalinServletContext(
         header(Header.LOCATION, location).status(status).result("Redirected")
         if (endpoint().method == HandlerType.BEFORE || endpoint().method == HandlerType.BEFORE_MATCHED) {
             tasks.removeIf { it.skipOnExceptionAndRedirect }
+            redirectedFromBeforeHandler = true
         }
     }
 
@@ -195,8 +278,20 @@ open class JavalinServletContext(
         userFutureSupplier = future
     }
 
+    /** Set when the response was produced before the http-handler ran (ex: served from a cache), the other handlers still run */
+    @get:JvmSynthetic
+    internal var httpHandlerSkipped = false
+        private set
+
+    @JvmSynthetic
+    internal fun skipHttpHandler() {
+        httpHandlerSkipped = true
+    }
+
     override fun skipRemainingHandlers(): Context = also {
         tasks.clear()
+        executionPlanDeferred = false
+        plannedSteps = null
     }
 
     override fun routeRoles() = routeRoles
@@ -215,14 +310,9 @@ fun getRequestCharset(ctx: Context) = ctx.req().getHeader(Header.CONTENT_TYPE)?.
     value.split(";").find { it.trim().startsWith("charset", ignoreCase = true) }?.let { it.split("=")[1].trim().removeSurrounding("\"") }
 }
 
+/** Parses a url-encoded string (ex: a query string) lazily, see [UrlEncodedParamMap] */
 fun splitKeyValueStringAndGroupByKey(string: String, charset: String): Map<String, List<String>> =
-    if (string.isEmpty()) mapOf() else string.split("&")
-        .map { it.split("=", limit = 2).let { it.get(0) to it.getOrElse(1) { "" } } } // map missing values to empty strings
-        .groupBy({ it.first.urlDecode(charset) }, { it.second.urlDecode(charset) })
-        .mapNotNull { (k, v) -> k?.let { it to v.filterNotNull() } }.toMap()
-
-private fun String.urlDecode(charset: String): String? =
-    try { URLDecoder.decode(this, charset) } catch (_: Exception) { null }
+    if (string.isEmpty()) mapOf() else UrlEncodedParamMap(string, charset)
 
 fun pathParamOrThrow(pathParams: Map<String, String?>, key: String, url: String) =
     pathParams[key.removePrefix("{").removeSuffix("}")] ?: throw IllegalArgumentException("'$key' is not a valid path-param for '$url'.")
@@ -1,5 +1,6 @@
 package io.javalin.http.servlet
 
+import jakarta.servlet.AsyncContext
 import jakarta.servlet.ServletInputStream
 import jakarta.servlet.http.HttpServletRequest
 import jakarta.servlet.http.HttpServletRequestWrapper
@@ -10,4 +11,12 @@ class JavalinServletRequest(request: HttpServletRequest) : HttpServletRequestWra
 
     override fun getInputStream(): ServletInputStream =
         super.getInputStream().also { inputStreamRead = true }
+
+    /** Starts async mode if the async context is requested before it was started, see [JavalinServlet] */
+    internal var startAsyncOnDemand: (() -> Unit)? = null
+
+    override fun getAsyncContext(): AsyncContext {
+        if (!isAsyncStarted) startAsyncOnDemand?.invoke()
+        return super.getAsyncContext()
+    }
 }
@@ -1,6 +1,7 @@
 package io.javalin.http.servlet
 
 import io.javalin.security.RouteRole
+import io.javalin.websocket.WsRoutePlan
 import jakarta.servlet.http.HttpServletRequest
 import jakarta.servlet.http.HttpServletResponse
 import org.eclipse.jetty.websocket.api.Session
@@ -18,6 +19,12 @@ class JavalinWsServletContext(
     routeRoles = routeRoles,
 ) {
     val extractedData = UpgradeRequestData(this)
+
+    /** The WebSocket handlers resolved for the upgrade request, reused by the connection */
+    @get:JvmSynthetic
+    @set:JvmSynthetic
+    internal var wsRoutePlan: WsRoutePlan? = null
+
     fun attach(session: Session) = apply { this.extractedData.session = session }
 }
 
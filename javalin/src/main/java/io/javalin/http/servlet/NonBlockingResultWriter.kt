@@ -0,0 +1,44 @@
+package io.javalin.http.servlet
+
+import jakarta.servlet.ServletOutputStream
+import jakarta.servlet.WriteListener
+import java.io.InputStream
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Writes the result to the output stream whenever it's ready, and returns the thread while it isn't.
+ * The output stream (a [io.javalin.compression.CompressedOutputStream]) compresses the result chunk by chunk.
+ * The buffer is reused once the output is ready again, which means the previous write has completed.
+ */
+internal class NonBlockingResultWriter(
+    private val resultStream: InputStream,
+    private val output: ServletOutputStream,
+    bufferSize: Int,
+    private val onDone: (Throwable?) -> Unit,
+) : WriteListener {
+
+    private val buffer = ByteArray(bufferSize)
+    private val done = AtomicBoolean(false)
+    private var closed = false
+
+    override fun onWritePossible() {
+        try {
+            while (output.isReady) {
+                if (closed) return finish(null) // the last write has completed
+                when (val read = resultStream.read(buffer)) {
+                    -1 -> output.close().also { closed = true } // writes the end of a compressed result
+                    else -> output.write(buffer, 0, read)
+                }
+            }
+        } catch (throwable: Throwable) {
+            finish(throwable)
+        }
+    }
+
+    override fun onError(throwable: Throwable) = finish(throwable)
+
+    private fun finish(error: Throwable?) {
+        if (done.compareAndSet(false, true)) onDone(error)
+    }
+
+}
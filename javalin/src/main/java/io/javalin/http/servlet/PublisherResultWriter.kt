@@ -0,0 +1,112 @@
+package io.javalin.http.servlet
+
+import io.javalin.compression.CompressedOutputStream
+import jakarta.servlet.WriteListener
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Flow
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Writes the items of a [Flow.Publisher] to the output stream, requesting one item at a time,
+ * and only once the output stream is ready for it. The output stream compresses the items one by one.
+ *
+ * Signals from the publisher and the servlet container can arrive on different threads. They are handled
+ * by [drain], which runs on one thread at a time: a signal arriving while another thread is draining makes
+ * that thread drain once more, instead of waiting for it.
+ */
+internal class PublisherResultWriter(
+    private val output: CompressedOutputStream,
+    private val onDone: (Throwable?) -> Unit,
+) : WriteListener {
+
+    private val items = ConcurrentLinkedQueue<ByteBuffer>()
+    private val pendingSignals = AtomicInteger()
+    private val done = AtomicBoolean(false)
+    @Volatile private var subscription: Flow.Subscription? = null
+    @Volatile private var completed = false
+    @Volatile private var failure: Throwable? = null
+    private var requested = false // only accessed while draining
+    private var closed = false // only accessed while draining
+
+    val subscriber = object : Flow.Subscriber<ByteBuffer> {
+        override fun onSubscribe(subscription: Flow.Subscription) {
+            this@PublisherResultWriter.subscription = subscription
+            drain()
+        }
+
+        override fun onNext(item: ByteBuffer) {
+            items.add(item)
+            drain()
+        }
+
+        override fun onError(throwable: Throwable) {
+            failure = throwable
+            drain()
+        }
+
+        override fun onComplete() {
+            completed = true
+            drain()
+        }
+    }
+
+    override fun onWritePossible() = drain()
+
+    override fun onError(throwable: Throwable) { // ex: the client disconnected
+        failure = throwable
+        drain()
+    }
+
+    private fun drain() {
+        if (pendingSignals.getAndIncrement() != 0) return
+        var missed = 1
+        while (missed != 0) {
+            try {
+                drainOnce()
+            } catch (throwable: Throwable) {
+                finish(throwable)
+            }
+            missed = pendingSignals.addAndGet(-missed)
+        }
+    }
+
+    private fun drainOnce() {
+        if (done.get()) return
+        failure?.let { return finish(it) }
+        val subscription = subscription ?: return
+        while (true) {
+            if (closed) {
+                if (output.isReady) finish(null) // the last write has completed
+                return
+            }
+            if (!output.isReady) return // called again by onWritePossible
+            val item = items.poll()
+            when {
+                item != null -> {
+                    requested = false
+                    output.write(item)
+                }
+                completed -> if (items.isEmpty()) { // all items arrived before the completion signal
+                    output.close() // writes the end of a compressed result
+                    closed = true
+                }
+                else -> {
+                    if (!requested) {
+                        requested = true
+                        subscription.request(1) // called again by onNext
+                    }
+                    return
+                }
+            }
+        }
+    }
+
+    private fun finish(error: Throwable?) {
+        if (!done.compareAndSet(false, true)) return
+        if (error != null) subscription?.cancel()
+        onDone(error)
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin.http.servlet
+
+import java.net.URLDecoder
+
+/**
+ * A read-only multimap of the params of a url-encoded string, like a query string or a form body ("a=1&b=2&a=3").
+ *
+ * The string is scanned once, and each param is only stored as offsets into it. Keys and values are decoded the first
+ * time they're read, and parts without '%' or '+' are used as they are. Getting a single key (ex: ctx.queryParam("page"))
+ * compares the raw keys in place, so it doesn't decode or group the other params.
+ *
+ * Params whose key can't be decoded are left out, as are values that can't be decoded.
+ * A param without '=' has an empty value.
+ */
+internal class UrlEncodedParamMap(
+    private val string: String,
+    private val charset: String,
+) : AbstractMap<String, List<String>>() {
+
+    private var paramCount = 0
+    private var params = IntArray(4 * 8) // start, index of '=' (or end), end and encoded flags of each param
+
+    init {
+        var start = 0
+        var separator = -1
+        var flags = 0
+        for (index in 0..string.length) {
+            val char = if (index < string.length) string[index] else '&'
+            when {
+                char == '&' -> {
+                    addParam(start, if (separator == -1) index else separator, index, flags)
+                    start = index + 1
+                    separator = -1
+                    flags = 0
+                }
+                char == '=' && separator == -1 -> separator = index
+                char == '%' || char == '+' -> flags = flags or if (separator == -1) KEY_ENCODED else VALUE_ENCODED
+            }
+        }
+    }
+
+    // decoded keys and values, written at most once per param (a racing read decodes the same string again)
+    private val decodedKeys = arrayOfNulls<Any>(paramCount)
+    private val decodedValues = arrayOfNulls<Any>(paramCount)
+
+    // all params grouped by key, only created if the whole map is read
+    private var grouped: Map<String, List<String>>? = null
+
+    override val size: Int get() = grouped().size
+
+    override fun isEmpty(): Boolean = (0 until paramCount).none { keyAt(it) != null }
+
+    override fun containsKey(key: String): Boolean = (0 until paramCount).any { keyMatches(it, key) }
+
+    override fun get(key: String): List<String>? {
+        grouped?.let { return it[key] }
+        var values: MutableList<String>? = null
+        for (index in 0 until paramCount) {
+            if (!keyMatches(index, key)) continue
+            val keyValues = values ?: ArrayList<String>(1).also { values = it }
+            valueAt(index)?.let { keyValues.add(it) }
+        }
+        return values
+    }
+
+    override val entries: Set<Map.Entry<String, List<String>>> get() = grouped().entries
+
+    private fun grouped(): Map<String, List<String>> = grouped ?: LinkedHashMap<String, MutableList<String>>().also { map ->
+        for (index in 0 until paramCount) {
+            val values = map.getOrPut(keyAt(index) ?: continue) { ArrayList(1) }
+            valueAt(index)?.let { values.add(it) }
+        }
+        grouped = map
+    }
+
+    private fun addParam(start: Int, separator: Int, end: Int, flags: Int) {
+        if (paramCount * 4 == params.size) params = params.copyOf(params.size * 2)
+        val offset = paramCount++ * 4
+        params[offset] = start
+        params[offset + 1] = separator
+        params[offset + 2] = end
+        params[offset + 3] = flags
+    }
+
+    private fun keyMatches(index: Int, key: String): Boolean {
+        val start = params[index * 4]
+        val length = params[index * 4 + 1] - start
+        return when {
+            (params[index * 4 + 3] and KEY_ENCODED) == 0 -> length == key.length && string.regionMatches(start, key, 0, length)
+            else -> keyAt(index) == key
+        }
+    }
+
+    private fun keyAt(index: Int): String? =
+        decode(decodedKeys, index, params[index * 4], params[index * 4 + 1], (params[index * 4 + 3] and KEY_ENCODED) != 0)
+
+    private fun valueAt(index: Int): String? {
+        val separator = params[index * 4 + 1]
+        val end = params[index * 4 + 2]
+        return decode(decodedValues, index, minOf(separator + 1, end), end, (params[index * 4 + 3] and VALUE_ENCODED) != 0)
+    }
+
+    private fun decode(cache: Array<Any?>, index: Int, start: Int, end: Int, encoded: Boolean): String? {
+        when (val cached = cache[index]) {
+            is String -> return cached
+            Undecodable -> return null
+        }
+        val decoded = when {
+            encoded -> try { URLDecoder.decode(string.substring(start, end), charset) } catch (_: Exception) { null }
+            else -> string.substring(start, end)
+        }
+        cache[index] = decoded ?: Undecodable
+        return decoded
+    }
+
+    private object Undecodable
+
+    private companion object {
+        const val KEY_ENCODED = 1
+        const val VALUE_ENCODED = 2
+    }
+
+}
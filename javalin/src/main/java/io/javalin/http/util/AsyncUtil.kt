@@ -10,6 +10,7 @@ import java.util.concurrent.CompletableFuture
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.TimeUnit.MILLISECONDS
 import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.function.Consumer
 
 class AsyncTaskConfig {
@@ -51,28 +52,51 @@ class AsyncExecutor(private val defaultExecutor: ExecutorService) {
         context.future {
             context.req().asyncContext.timeout = 0 // we're using cf timeouts below, so we need to disable default jetty timeout listener
 
-            CompletableFuture.runAsync({ task.run() }, asyncTaskConfig.executor ?: defaultExecutor)
-                .let { taskFuture ->
-                    asyncTaskConfig.timeout
-                        .takeIf { it > 0 }
-                        ?.let { taskFuture.orTimeout(it, MILLISECONDS) }
-                        ?: taskFuture
-                }
-                .let { taskFuture ->
-                    asyncTaskConfig.onTimeout
-                        ?.let {
-                            taskFuture.exceptionally { exception ->
-                                exception as? TimeoutException
-                                    ?: exception?.cause as? TimeoutException?
-                                    ?: throw exception // rethrow if exception or its cause is not TimeoutException
-                                it.accept(context)
-                                null // handled
-                            }
-                        }
-                        ?: taskFuture
+            val taskFuture = runInterruptibly(task, asyncTaskConfig.executor ?: defaultExecutor)
+            if (asyncTaskConfig.timeout > 0) {
+                taskFuture.orTimeout(asyncTaskConfig.timeout, MILLISECONDS)
+            }
+            val resultFuture = asyncTaskConfig.onTimeout
+                ?.let {
+                    taskFuture.exceptionally { exception ->
+                        exception as? TimeoutException
+                            ?: exception?.cause as? TimeoutException?
+                            ?: throw exception // rethrow if exception or its cause is not TimeoutException
+                        it.accept(context)
+                        null // handled
+                    }
                 }
+                ?: taskFuture
+            resultFuture.whenComplete { _, _ -> taskFuture.cancel(false) } // interrupt the task if the result is completed first (ex: when it's cancelled)
+            resultFuture
+        }
+
+    /** Runs the task on the executor, and interrupts it if the returned future is completed first (ex: on a timeout) */
+    private fun runInterruptibly(task: ThrowingRunnable<Exception>, executor: ExecutorService): CompletableFuture<Void?> {
+        val taskFuture = InterruptibleFuture<Void?>()
+        val finished = AtomicBoolean(false)
+        val running = executor.submit {
+            try {
+                task.run()
+                finished.set(true)
+                taskFuture.complete(null)
+            } catch (throwable: Throwable) {
+                finished.set(true)
+                taskFuture.completeExceptionally(throwable)
+            }
         }
+        taskFuture.whenComplete { _, _ -> if (!finished.get()) running.cancel(true) }
+        return taskFuture
+    }
+
+}
 
+/**
+ * A future created by Javalin whose work stops when the future is cancelled (ex: a task that is interrupted),
+ * so the request can cancel it once its [io.javalin.http.Deadline] has passed. Dependent stages keep the type.
+ */
+internal class InterruptibleFuture<T> : CompletableFuture<T>() {
+    override fun <U> newIncompleteFuture(): CompletableFuture<U> = InterruptibleFuture()
 }
 
 object AsyncUtil {
@@ -0,0 +1,45 @@
+package io.javalin.http.util
+
+import io.javalin.http.Header
+import jakarta.servlet.http.HttpServletResponse
+import java.util.TreeMap
+
+/**
+ * The response headers a handler added or changed, recorded so they can be replayed to other responses
+ * (ex: by [io.javalin.http.Coalesce] and [io.javalin.plugin.bundled.ResponseCachePlugin]).
+ *
+ * Headers that were already set before the handler ran (ex: CORS headers or request ids set by before-handlers)
+ * are not recorded, and neither are Set-Cookie headers. Replaying never replaces a header the other response set itself.
+ */
+internal class HandlerHeaders private constructor(
+    private val headers: Map<String, List<String>>,
+    private val previous: Map<String, List<String>>, // the values of these headers before the handler ran
+) {
+
+    /** Sets the recorded headers on [res], except for headers it already has other values for than the handler replaced */
+    fun replay(res: HttpServletResponse) {
+        headers.forEach { (name, values) ->
+            val current = res.getHeaders(name).toList()
+            if (current.isNotEmpty() && current != previous[name].orEmpty()) return@forEach // ex: set by a before-handler of this request
+            res.setHeader(name, values.first())
+            values.drop(1).forEach { res.addHeader(name, it) }
+        }
+    }
+
+    companion object {
+
+        /** The current headers of [res], to capture right before the handler runs */
+        fun capture(res: HttpServletResponse): Map<String, List<String>> =
+            res.headerNames.associateWithTo(TreeMap(String.CASE_INSENSITIVE_ORDER)) { res.getHeaders(it).toList() }
+
+        /** The headers of [res] that were added or changed since [before] was captured */
+        fun since(before: Map<String, List<String>>, res: HttpServletResponse): HandlerHeaders {
+            val headers = capture(res).filter { (name, values) ->
+                values.isNotEmpty() && values != before[name] && !name.equals(Header.SET_COOKIE, ignoreCase = true)
+            }
+            return HandlerHeaders(headers, headers.keys.mapNotNull { name -> before[name]?.let { name to it } }.toMap())
+        }
+
+    }
+
+}
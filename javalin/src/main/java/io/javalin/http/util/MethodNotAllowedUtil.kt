@@ -9,14 +9,20 @@ package io.javalin.http.util
 import io.javalin.http.Context
 import io.javalin.http.HandlerType
 import io.javalin.http.servlet.acceptsHtml
+import io.javalin.router.AllowedMethods
 import io.javalin.router.InternalRouter
 
 object MethodNotAllowedUtil {
 
-    fun findAvailableHttpHandlerTypes(router: InternalRouter, requestUri: String) =
-        HandlerType.values().filter { it.isHttpMethod && router.findFirstHttpHandlerEntry(it, requestUri) != null }
+    fun findAvailableHttpHandlerTypes(router: InternalRouter, requestUri: String): List<HandlerType> =
+        router.findAllowedMethods(requestUri).methods
 
-    fun availableHandlerTypes(ctx: Context, availableHandlerTypes: List<HandlerType>): Map<String, String> = mapOf(
-        (if (acceptsHtml(ctx)) "Available methods" else "availableMethods") to availableHandlerTypes.joinToString(", ")
-    )
+    fun availableHandlerTypes(ctx: Context, availableHandlerTypes: List<HandlerType>): Map<String, String> =
+        details(ctx, availableHandlerTypes.joinToString(", "))
+
+    fun availableHandlerTypes(ctx: Context, allowedMethods: AllowedMethods): Map<String, String> =
+        details(ctx, allowedMethods.header)
+
+    private fun details(ctx: Context, methods: String): Map<String, String> =
+        mapOf((if (acceptsHtml(ctx)) "Available methods" else "availableMethods") to methods)
 }
@@ -54,7 +54,8 @@ class JavalinJettyServlet(val cfg: JavalinState) : JettyWebSocketServlet() {
     private fun serviceWebSocketRequest(req: HttpServletRequest, res: HttpServletResponse) {
         val requestStartTime = System.nanoTime()
         val requestUri = req.requestURI.removePrefix(req.contextPath)
-        val wsRouterHandlerEntry = cfg.wsRouter.wsPathMatcher.findEndpointHandlerEntry(requestUri)
+        val wsRoutePlan = cfg.wsRouter.wsPathMatcher.findRoutePlan(requestUri)
+        val wsRouterHandlerEntry = wsRoutePlan.endpoint
         if (wsRouterHandlerEntry == null) {
             res.sendError(404, "WebSocket handler not found")
             // Still need to call upgrade logger for 404 cases
@@ -74,20 +75,23 @@ class JavalinJettyServlet(val cfg: JavalinState) : JettyWebSocketServlet() {
             req = req,
             res = res,
             routeRoles = wsRouterHandlerEntry.roles,
-        ).apply { update(wsEndpoint, wsPathParams) }
+        ).apply {
+            update(wsEndpoint, wsPathParams)
+            this.wsRoutePlan = wsRoutePlan
+        }
         req.setAttribute(upgradeContextKey, upgradeContext)
         res.setWsProtocolHeader(req)
         // add before handlers
-        cfg.internalRouter.findHttpHandlerEntries(HandlerType.WEBSOCKET_BEFORE_UPGRADE, requestUri)
-            .forEach { handler -> upgradeContext.tasks.offer(Task { handler.handle(upgradeContext, requestUri) }) }
+        cfg.internalRouter.findHttpHandlerMatches(HandlerType.WEBSOCKET_BEFORE_UPGRADE, requestUri)
+            .forEach { match -> upgradeContext.tasks.offer(Task { match.handle(upgradeContext) }) }
         // add the actual upgrade handler
         upgradeContext.tasks.offer(Task {
             upgradeContext.extractedData.snapshotAttributes() // re-snapshot after wsBeforeUpgrade handlers have run
             super.service(req, res)
         })
         // add after handlers
-        cfg.internalRouter.findHttpHandlerEntries(HandlerType.WEBSOCKET_AFTER_UPGRADE, requestUri)
-            .forEach { handler -> upgradeContext.tasks.offer(Task { handler.handle(upgradeContext, requestUri) }) }
+        cfg.internalRouter.findHttpHandlerMatches(HandlerType.WEBSOCKET_AFTER_UPGRADE, requestUri)
+            .forEach { match -> upgradeContext.tasks.offer(Task { match.handle(upgradeContext) }) }
 
         try {
             while (upgradeContext.tasks.isNotEmpty()) { // execute all tasks in order
@@ -0,0 +1,122 @@
+package io.javalin.plugin.bundled
+
+import io.javalin.config.JavalinState
+import io.javalin.http.Context
+import io.javalin.http.Header
+import io.javalin.http.ServiceUnavailableResponse
+import io.javalin.http.servlet.JavalinServletContext
+import io.javalin.http.servlet.SubmitOrder.FIRST
+import io.javalin.http.servlet.Task
+import io.javalin.http.servlet.TaskInitializer
+import io.javalin.plugin.Plugin
+import org.eclipse.jetty.ee10.servlet.ServletContextRequest
+import org.eclipse.jetty.server.Request
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import java.util.function.Consumer
+import kotlin.math.sqrt
+
+/**
+ * Sheds load by limiting the number of requests that are handled concurrently.
+ * Requests over the limit are rejected with 503 and a Retry-After header, before any handler runs,
+ * instead of waiting in the queue of the thread pool until their latency explodes.
+ *
+ * The limit adapts to the latency of the handled requests: it grows while latency stays close to
+ * its long-term average, and shrinks when latency increases, which indicates that requests are queueing.
+ * The current [limit], [inFlight] and [rejected] counts can be exposed as metrics, e.g. as gauges.
+ *
+ * The limiter runs as the first task of the request lifecycle, before the request is routed, so it should be
+ * registered after any changes to [JavalinState.servletRequestLifecycle]. Only requests served by Jetty are limited.
+ */
+class ConcurrencyLimitPlugin(userConfig: Consumer<Config>? = null) : Plugin<ConcurrencyLimitPlugin.Config>(userConfig, Config()) {
+
+    class Config {
+        /** The limit before any latency has been measured */
+        @JvmField var initialLimit = 20
+        @JvmField var minLimit = 1
+        /** The limit never grows past this, which should not exceed the size of the thread pool */
+        @JvmField var maxLimit = 200
+        /** How much the latency may exceed its long-term average before the limit is reduced */
+        @JvmField var tolerance = 2.0
+        /** How much of the newly computed limit is applied after each sample, between 0 and 1 */
+        @JvmField var smoothing = 0.2
+        /** The number of samples the long-term latency average is taken over */
+        @JvmField var longWindow = 600
+        @JvmField var retryAfterSeconds = 1
+    }
+
+    private val inFlightRequests = AtomicInteger()
+    private val rejectedRequests = AtomicLong()
+    private val sampleLock = ReentrantLock()
+    private var longRttNanos = 0.0 // guarded by sampleLock
+    private var samples = 0 // guarded by sampleLock
+
+    @Volatile
+    private var currentLimit = pluginConfig.initialLimit.toDouble()
+
+    /** The current concurrency limit */
+    val limit: Int
+        get() = currentLimit.toInt()
+
+    /** The number of requests that are currently being handled */
+    val inFlight: Int
+        get() = inFlightRequests.get()
+
+    /** The number of requests that have been rejected since the server started */
+    val rejected: Long
+        get() = rejectedRequests.get()
+
+    override fun onInitialize(state: JavalinState) {
+        state.servletRequestLifecycle.add(0, TaskInitializer<JavalinServletContext> { submitTask, _, ctx, _ ->
+            submitTask(FIRST, Task(skipOnExceptionAndRedirect = true) { acquire(ctx) })
+        })
+    }
+
+    private fun acquire(ctx: Context) {
+        val request = try {
+            ServletContextRequest.getServletContextRequest(ctx.req()) ?: return
+        } catch (_: Exception) {
+            return // not a Jetty request (ex: a mock)
+        }
+        while (true) {
+            val current = inFlightRequests.get()
+            if (current >= limit) {
+                rejectedRequests.incrementAndGet()
+                ctx.header(Header.RETRY_AFTER, pluginConfig.retryAfterSeconds.toString())
+                throw ServiceUnavailableResponse("Concurrency limit exceeded - Server is overloaded.")
+            }
+            if (inFlightRequests.compareAndSet(current, current + 1)) break
+        }
+        val startNanos = System.nanoTime()
+        Request.addCompletionListener(request) { // called once the response is complete, also for async requests and failures
+            val inFlightAtCompletion = inFlightRequests.getAndDecrement()
+            onSample(System.nanoTime() - startNanos, inFlightAtCompletion)
+        }
+    }
+
+    @JvmSynthetic
+    internal fun onSample(rttNanos: Long, inFlight: Int) {
+        if (!sampleLock.tryLock()) return // skip the sample instead of blocking under contention
+        try {
+            val rtt = rttNanos.coerceAtLeast(1).toDouble()
+            samples++
+            longRttNanos = when {
+                samples == 1 -> rtt
+                else -> longRttNanos + (rtt - longRttNanos) / samples.coerceAtMost(pluginConfig.longWindow)
+            }
+            if (longRttNanos / rtt > 2) {
+                longRttNanos *= 0.95 // recover faster once latency drops after a period of high load
+            }
+            val limit = currentLimit
+            if (inFlight < limit / 2) return // not enough load to tell whether the limit can grow
+            val gradient = (pluginConfig.tolerance * longRttNanos / rtt).coerceIn(0.5, 1.0)
+            val newLimit = limit * gradient + sqrt(limit) // allow some queueing, so the limit can grow
+            currentLimit = (limit * (1 - pluginConfig.smoothing) + newLimit * pluginConfig.smoothing)
+                .coerceIn(pluginConfig.minLimit.toDouble(), pluginConfig.maxLimit.toDouble())
+        } finally {
+            sampleLock.unlock()
+        }
+    }
+
+}
@@ -30,17 +30,16 @@ open class HttpAllowedMethodsPlugin : Plugin<Void>() {
                 .filter { it.method.isHttpMethod }
                 .groupBy({ it.path }, { it.method })
                 .mapValues { (_, handlers) -> (handlers + OPTIONS).toSet() }
-                .forEach { (path, handlers) ->
+                .map { (path, handlers) ->
                     val allowedMethods = handlers.joinToString(",")
 
-                    state.internalRouter.addHttpEndpoint(
-                        Endpoint(
-                            method = OPTIONS,
-                            path = path,
-                            handler = { it.header(ACCESS_CONTROL_ALLOW_METHODS, allowedMethods) }
-                        )
+                    Endpoint(
+                        method = OPTIONS,
+                        path = path,
+                        handler = { it.header(ACCESS_CONTROL_ALLOW_METHODS, allowedMethods) }
                     )
                 }
+                .let { state.internalRouter.addHttpEndpoints(it) } // the server is running, so add them with a single route table update
         }
     }
 
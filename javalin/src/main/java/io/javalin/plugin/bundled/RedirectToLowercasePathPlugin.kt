@@ -8,6 +8,7 @@ package io.javalin.plugin.bundled
 
 import io.javalin.config.JavalinState
 import io.javalin.http.HttpStatus.MOVED_PERMANENTLY
+import io.javalin.http.servlet.JavalinServletContext
 import io.javalin.plugin.Plugin
 import io.javalin.plugin.PluginPriority
 import io.javalin.router.matcher.PathParser
@@ -52,19 +53,28 @@ open class RedirectToLowercasePathPlugin : Plugin<Void>() {
             val requestUri = ctx.path().removePrefix(ctx.contextPath())
             val router = state.internalRouter
 
-            if (router.findFirstHttpHandlerEntry(ctx.method(), requestUri) != null) {
+            val routeFound = when (ctx) {
+                // the servlet has already resolved the route plan of the request, so this doesn't need another lookup
+                is JavalinServletContext -> ctx.cachedRoutePlan { router.findRoutePlan(ctx.method(), requestUri) }.http != null
+                else -> router.findFirstHttpHandlerEntry(ctx.method(), requestUri) != null
+            }
+            if (routeFound) {
                 return@before // we found a route for this case, no need to redirect
             }
 
-            val lowercaseRoute = router.findFirstHttpHandlerEntry(ctx.method(), requestUri.lowercase(Locale.ROOT))
+            val lowercaseUri = requestUri.lowercase(Locale.ROOT)
+            if (lowercaseUri == requestUri) {
+                return@before // there is no lowercase equivalent to look for
+            }
+
+            val lowercaseRoute = router.findFirstHttpHandlerEntry(ctx.method(), lowercaseUri)
                 ?: return@before // lowercase route not found
 
             val clientSegments = requestUri.split("/")
                 .filter { it.isNotEmpty() }
                 .toTypedArray()
 
-            val serverSegments = PathParser(lowercaseRoute.endpoint.path, state.router)
-                .segments
+            val serverSegments = lowercaseRoute.pathParser.segments
 
             serverSegments.forEachIndexed { index, serverSegment ->
                 // this is also a "Normal" segment
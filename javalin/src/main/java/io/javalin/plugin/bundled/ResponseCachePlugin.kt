@@ -0,0 +1,177 @@
+package io.javalin.plugin.bundled
+
+import io.javalin.config.JavalinState
+import io.javalin.http.Context
+import io.javalin.http.HandlerType.GET
+import io.javalin.http.HandlerType.HEAD
+import io.javalin.http.Header
+import io.javalin.http.servlet.JavalinServletContext
+import io.javalin.http.util.HandlerHeaders
+import io.javalin.plugin.Plugin
+import io.javalin.router.EndpointMetadata
+import io.javalin.util.TinyLfuCache
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.Consumer
+
+/**
+ * Endpoint metadata that makes the [ResponseCachePlugin] cache successful GET responses of the endpoint.
+ * @param maxAge how long a response is cached, unless the response has a Cache-Control max-age
+ * @param vary request headers whose values are part of the cache key, which are added to the Vary header of the response
+ * @param tags tags to invalidate the cached responses by, see [ResponseCachePlugin.invalidate]
+ */
+data class ResponseCache @JvmOverloads constructor(
+    val maxAge: Duration,
+    val vary: List<String> = emptyList(),
+    val tags: Set<String> = emptySet(),
+) : EndpointMetadata
+
+/**
+ * Caches the responses of endpoints with [ResponseCache] metadata in memory, and serves cached responses
+ * before the http-handler runs (after the before-handlers, so access checks still apply).
+ *
+ * Responses are keyed by path, query string and the values of the declared [ResponseCache.vary] headers.
+ * Only 200 responses to GET requests are stored, and only if they have no Set-Cookie header and their
+ * Cache-Control allows it (no `no-store`, `no-cache` or `private`). A request with `Cache-Control: no-cache`
+ * bypasses the cached response, and replaces it. The cache is bounded by [Config.maxBytes] of result bytes and uses W-TinyLFU eviction.
+ *
+ * Only the headers the http-handler set are cached, not the ones set before the response cache ran (ex: by before-handlers),
+ * and a cache hit never replaces headers the request already has its own values for.
+ * A cache hit only skips the http-handler, the after-handlers still run (ex: to log the request).
+ * Cached responses are stored uncompressed, and compressed per request like other responses.
+ */
+class ResponseCachePlugin(userConfig: Consumer<Config>? = null) : Plugin<ResponseCachePlugin.Config>(userConfig, Config()) {
+
+    class Config {
+        /** The total size of the cached result bytes */
+        @JvmField var maxBytes = 64L * 1024 * 1024
+        @JvmField var maxEntries = 10_000
+    }
+
+    private class CachedResponse(
+        val headers: HandlerHeaders,
+        val result: ByteArray,
+        val tags: Set<String>,
+        val storedNanos: Long,
+        val expiresNanos: Long,
+    )
+
+    /** What the response cache knows about a request before its http-handler runs */
+    private class PendingResponse(val generation: Long, val headersBefore: Map<String, List<String>>)
+
+    private val cache = TinyLfuCache<String, CachedResponse>(pluginConfig.maxEntries, pluginConfig.maxBytes) { it.result.size }
+
+    // responses computed before an invalidation of one of their tags are not stored
+    private val tagGenerations = ConcurrentHashMap<String, AtomicLong>()
+    private val allGeneration = AtomicLong()
+
+    /** The number of requests that were served from the cache */
+    val hits: Long
+        get() = cache.hitCount()
+
+    /** The number of cacheable requests that were not found in the cache */
+    val misses: Long
+        get() = cache.missCount()
+
+    /** The number of cached responses */
+    val size: Int
+        get() = cache.size()
+
+    /** The total size of the cached result bytes */
+    val bytes: Long
+        get() = cache.weight()
+
+    /** Removes all cached responses of endpoints with the given tag */
+    fun invalidate(tag: String) {
+        tagGenerations.computeIfAbsent(tag) { AtomicLong() }.incrementAndGet()
+        cache.removeIf { _, response -> tag in response.tags }
+    }
+
+    fun invalidateAll() {
+        allGeneration.incrementAndGet()
+        cache.clear()
+    }
+
+    /** Changes whenever responses with any of the [tags] are invalidated, since the generations only increase */
+    private fun generation(tags: Set<String>): Long =
+        allGeneration.get() + tags.sumOf { tagGenerations[it]?.get() ?: 0L }
+
+    override fun onStart(state: JavalinState) {
+        state.routes.beforeMatched { ctx ->
+            val metadata = ctx.cacheMetadata() ?: return@beforeMatched
+            if (ctx.method() != GET && ctx.method() != HEAD) return@beforeMatched
+            if (metadata.vary.isNotEmpty()) ctx.addVary(metadata.vary)
+            val pending = PendingResponse(generation(metadata.tags), HandlerHeaders.capture(ctx.res()))
+            if (!ctx.header(Header.CACHE_CONTROL).hasDirective("no-cache") && serveCached(ctx, key(ctx, metadata))) return@beforeMatched
+            ctx.attribute(PENDING_ATTRIBUTE, pending) // the response replaces the cached one, if there is one
+        }
+        state.routes.afterMatched { ctx ->
+            val metadata = ctx.cacheMetadata() ?: return@afterMatched
+            if (ctx.method() != GET || ctx.statusCode() != 200) return@afterMatched
+            val pending = ctx.attribute<PendingResponse>(PENDING_ATTRIBUTE) ?: return@afterMatched
+            val requestCacheControl = ctx.header(Header.CACHE_CONTROL)
+            val cacheControl = ctx.res().getHeader(Header.CACHE_CONTROL)
+            when {
+                requestCacheControl.hasDirective("no-store") -> return@afterMatched
+                listOf("no-store", "no-cache", "private").any { cacheControl.hasDirective(it) } -> return@afterMatched
+                ctx.res().containsHeader(Header.SET_COOKIE) -> return@afterMatched
+            }
+            val maxAge = cacheControl.maxAge() ?: metadata.maxAge
+            if (maxAge <= Duration.ZERO) return@afterMatched
+            val result = ctx.resultInputStream()?.use { it.readBytes() }?.also { ctx.result(it) } ?: return@afterMatched
+            val headers = HandlerHeaders.since(pending.headersBefore, ctx.res())
+            val now = System.nanoTime()
+            cache.put(key(ctx, metadata), CachedResponse(headers, result, metadata.tags, now, now + maxAge.toNanos())) {
+                generation(metadata.tags) == pending.generation
+            }
+        }
+    }
+
+    /** Serves the cached response for [key] if there is one, only the http-handler is skipped */
+    private fun serveCached(ctx: Context, key: String): Boolean {
+        val cached = cache.get(key) ?: return false
+        val now = System.nanoTime()
+        if (now - cached.expiresNanos >= 0) {
+            cache.remove(key)
+            return false
+        }
+        cached.headers.replay(ctx.res())
+        ctx.header(Header.AGE, Duration.ofNanos(now - cached.storedNanos).seconds.toString())
+        ctx.result(cached.result)
+        (ctx as? JavalinServletContext)?.skipHttpHandler() ?: ctx.skipRemainingHandlers() // ex: a mocked context
+        return true
+    }
+
+    private companion object {
+        const val PENDING_ATTRIBUTE = "javalin-response-cache-pending"
+    }
+
+    private fun Context.cacheMetadata(): ResponseCache? =
+        endpoints().matchedHttpEndpoint()?.metadata(ResponseCache::class.java)
+
+    /** Adds the headers to the Vary header, keeping the values it already has (ex: Origin from CORS) */
+    private fun Context.addVary(headers: List<String>) {
+        val present = res().getHeaders(Header.VARY).flatMap { it.split(',') }.map { it.trim() }.filter { it.isNotEmpty() }
+        val missing = headers.filterNot { header -> present.any { it.equals(header, ignoreCase = true) } }
+        if (missing.isNotEmpty()) header(Header.VARY, (present + missing).joinToString(", "))
+    }
+
+    private fun key(ctx: Context, metadata: ResponseCache): String = buildString {
+        append(ctx.path())
+        ctx.queryString()?.let { append('?').append(it) }
+        metadata.vary.forEach { append('\n').append(ctx.header(it) ?: "") }
+    }
+
+    private fun String?.hasDirective(directive: String): Boolean =
+        this != null && split(',').any { it.trim().equals(directive, ignoreCase = true) }
+
+    private fun String?.maxAge(): Duration? =
+        this?.split(',')
+            ?.map { it.trim() }
+            ?.firstOrNull { it.startsWith("max-age=", ignoreCase = true) }
+            ?.substringAfter('=')
+            ?.toLongOrNull()
+            ?.let { Duration.ofSeconds(it) }
+
+}
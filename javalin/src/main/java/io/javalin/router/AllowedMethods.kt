@@ -0,0 +1,50 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin.router
+
+import io.javalin.http.HandlerType
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * The standard http methods ([HandlerType.values]) that have a handler for a request path, stored as a bitmask.
+ * There is one shared instance per set of methods, created on first use, which renders its `Allow` header value only once.
+ */
+class AllowedMethods private constructor(private val bits: Int) {
+
+    /** The methods in the order of [HandlerType.values] */
+    val methods: List<HandlerType> = HTTP_METHODS.filterIndexed { index, _ -> bits and (1 shl index) != 0 }
+
+    /** The methods as a value for the `Allow` header (ex: `GET, POST`) */
+    val header: String = methods.joinToString(", ")
+
+    fun isEmpty(): Boolean = bits == 0
+
+    operator fun contains(method: HandlerType): Boolean = bits and bitOf(method) != 0
+
+    override fun toString(): String = header
+
+    companion object {
+
+        private val HTTP_METHODS = HandlerType.values().filter { it.isHttpMethod }
+
+        private val instances = AtomicReferenceArray<AllowedMethods>(1 shl HTTP_METHODS.size) // most sets are never used
+
+        @JvmField
+        val NONE = of(0)
+
+        /** The bit of a method, or 0 if it's not a standard http method */
+        @JvmStatic
+        fun bitOf(method: HandlerType): Int = HTTP_METHODS.indexOf(method).let { if (it == -1) 0 else 1 shl it }
+
+        @JvmStatic
+        fun of(bits: Int): AllowedMethods = instances.get(bits) ?: AllowedMethods(bits).let { created ->
+            if (instances.compareAndSet(bits, null, created)) created else instances.get(bits) // another thread created it first
+        }
+
+    }
+
+}
@@ -49,7 +49,21 @@ class Endpoints internal constructor() {
         stack.add(endpoint)
         if (pathParams.isNotEmpty()) {
             lastMatchedEndpoint = endpoint
-            lastPathParams = pathParams
+            lastMatch = null
+            lastPathParamsMap = pathParams
+        }
+    }
+
+    /**
+     * Add an endpoint to the stack, keeping the match so its path params are only decoded if they are accessed.
+     * This method is internal and should not be visible to API users.
+     */
+    @JvmSynthetic
+    internal fun add(endpoint: Endpoint, match: MatchResult) {
+        stack.add(endpoint)
+        if (match.hasPathParams()) {
+            lastMatchedEndpoint = endpoint
+            lastMatch = match
         }
     }
 
@@ -61,8 +75,15 @@ class Endpoints internal constructor() {
     @JvmSynthetic
     internal var lastMatchedEndpoint: Endpoint? = null
 
-    @JvmSynthetic
-    internal var lastPathParams: Map<String, String> = emptyMap()
+    @get:JvmSynthetic
+    internal val lastPathParams: Map<String, String>
+        get() = lastMatch?.pathParams() ?: lastPathParamsMap
+
+    @get:JvmSynthetic
+    internal var lastMatch: MatchResult? = null
+        private set
+
+    private var lastPathParamsMap: Map<String, String> = emptyMap()
 
     /**
      * Get the HTTP endpoint that matched (or will match) the current request.
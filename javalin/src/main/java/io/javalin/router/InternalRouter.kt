@@ -14,14 +14,18 @@ import io.javalin.router.exception.ExceptionMapper
 import io.javalin.router.matcher.PathMatcher
 import io.javalin.security.Roles
 import io.javalin.security.RouteRole
+import io.javalin.util.TinyLfuCache
 import io.javalin.util.Util
+import io.javalin.util.javalinLazy
 import io.javalin.websocket.WsConfig
 import io.javalin.websocket.WsExceptionHandler
 import io.javalin.websocket.WsHandlerEntry
 import io.javalin.websocket.WsHandlerType
 import io.javalin.websocket.WsRouter
 import jakarta.servlet.http.HttpServletResponse
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.function.Consumer
+import kotlin.LazyThreadSafetyMode.SYNCHRONIZED
 
 open class InternalRouter(
     private val wsRouter: WsRouter,
@@ -30,28 +34,68 @@ open class InternalRouter(
     jettyConfig: JettyConfig
 ) {
 
-    protected open val httpPathMatcher = PathMatcher()
+    protected open val httpPathMatcher = PathMatcher(routerConfig)
     protected open val httpErrorMapper = ErrorMapper()
     protected open val httpExceptionMapper = ExceptionMapper(routerConfig, jettyConfig)
 
+    private data class RoutePlanKey(val method: HandlerType, val requestUri: String)
+
+    private val routePlanCacheLazy = javalinLazy(SYNCHRONIZED) { // created on first use, after the router config is final
+        routerConfig.routeCacheSize.takeIf { it > 0 }?.let { TinyLfuCache<RoutePlanKey, RoutePlan>(it) }
+    }
+    private val routePlanCache by routePlanCacheLazy
+
+    private val routesVersion = AtomicInteger() // incremented after every route change
+
     /**
      * Adds a request handler for the specified handlerType and path to the instance.
      * This is the method that all the verb-methods (get/post/put/etc) call.
      * See: [Handlers in docs](https://javalin.io/documentation.handlers)
      */
-    open fun addHttpEndpoint(endpoint: Endpoint): InternalRouter {
-        httpPathMatcher.add(ParsedEndpoint(endpoint, routerConfig))
-        eventManager.fireHandlerAddedEvent(
-            HandlerMetaInfo(
-                httpMethod = endpoint.method,
-                path = Util.prefixContextPath(routerConfig.contextPath, endpoint.path),
-                handler = endpoint.handler,
-                roles = endpoint.metadata(Roles::class.java)?.roles ?: emptySet()
+    open fun addHttpEndpoint(endpoint: Endpoint): InternalRouter =
+        addHttpEndpoints(listOf(endpoint))
+
+    /**
+     * Adds several request handlers at once.
+     * While the server is running, this publishes all of them with a single route table update,
+     * which is a lot cheaper than adding them one by one. If a handler is rejected, none of them are added.
+     */
+    open fun addHttpEndpoints(endpoints: Collection<Endpoint>): InternalRouter {
+        httpPathMatcher.addAll(endpoints.map { ParsedEndpoint(it, routerConfig) })
+        onRoutesChanged()
+        endpoints.forEach { endpoint ->
+            eventManager.fireHandlerAddedEvent(
+                HandlerMetaInfo(
+                    httpMethod = endpoint.method,
+                    path = Util.prefixContextPath(routerConfig.contextPath, endpoint.path),
+                    handler = endpoint.handler,
+                    roles = endpoint.metadata(Roles::class.java)?.roles ?: emptySet()
+                )
             )
-        )
+        }
         return this
     }
 
+    /**
+     * Removes the request handlers for the specified handlerType and path.
+     * Requests that are already being handled are not affected.
+     * @return true if a handler was removed
+     */
+    open fun removeHttpEndpoint(handlerType: HandlerType, path: String): Boolean =
+        httpPathMatcher.remove(handlerType, path).also { removed -> if (removed) onRoutesChanged() }
+
+    private fun onRoutesChanged() {
+        routesVersion.incrementAndGet()
+        if (routePlanCacheLazy.isInitialized()) routePlanCache?.clear()
+    }
+
+    /**
+     * Called when the router starts serving requests.
+     * From then on, route changes are published as new route tables instead of changing the one in use.
+     */
+    @JvmSynthetic
+    internal fun startServing() = httpPathMatcher.enableCopyOnWrite()
+
     /**
      * Get a list of all registered HTTP handlers.
      */
@@ -77,6 +121,52 @@ open class InternalRouter(
     open fun findFirstHttpHandlerEntry(handlerType: HandlerType, requestUri: String): ParsedEndpoint? =
         httpPathMatcher.findFirstEntry(handlerType, requestUri)
 
+    /**
+     * Finds all matching handlers for the specified handlerType and path, together with the location of their path params.
+     * The matches can be handled directly, without matching the path a second time.
+     */
+    open fun findHttpHandlerMatches(handlerType: HandlerType, requestUri: String): List<MatchResult> =
+        httpPathMatcher.findMatches(handlerType, requestUri)
+
+    /**
+     * Finds the first matching handler for the specified handlerType and path, together with the location of its path params.
+     * Short-circuits after the first match, avoiding unnecessary regex checks.
+     */
+    open fun findFirstHttpHandlerMatch(handlerType: HandlerType, requestUri: String): MatchResult? =
+        httpPathMatcher.findFirstMatch(handlerType, requestUri)
+
+    /**
+     * Finds the standard http methods that have a handler for the specified path,
+     * with a single lookup instead of one per method.
+     */
+    open fun findAllowedMethods(requestUri: String): AllowedMethods =
+        httpPathMatcher.findAllowedMethods(requestUri)
+
+    /**
+     * Resolves all handlers that match a request, see [RoutePlan].
+     * If [RouterConfig.routeCacheSize] is set, plans of requests that match an http handler are cached.
+     */
+    open fun findRoutePlan(method: HandlerType, requestUri: String): RoutePlan {
+        val cache = routePlanCache ?: return resolveRoutePlan(method, requestUri)
+        val key = RoutePlanKey(method, requestUri)
+        cache.get(key)?.let { return it }
+        val version = routesVersion.get()
+        val plan = resolveRoutePlan(method, requestUri)
+        if (plan.http != null) { // don't let unknown paths compete with real routes for a place in the cache
+            cache.put(key, plan) { version == routesVersion.get() } // skip plans resolved while routes were added
+        }
+        return plan
+    }
+
+    private fun resolveRoutePlan(method: HandlerType, requestUri: String): RoutePlan =
+        httpPathMatcher.findRoutePlan(method, requestUri)
+
+    /** The number of requests that were resolved with a cached [RoutePlan] */
+    fun routeCacheHitCount(): Long = routePlanCache?.hitCount() ?: 0
+
+    /** The number of requests that were resolved without a cached [RoutePlan] while the route cache was enabled */
+    fun routeCacheMissCount(): Long = routePlanCache?.missCount() ?: 0
+
     /**
      * Adds an error mapper for the specified content-type to the instance.
      * Useful for turning error-codes (404, 500) into standardized messages/pages
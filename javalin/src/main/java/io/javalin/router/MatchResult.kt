@@ -0,0 +1,59 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin.router
+
+import io.javalin.http.BadRequestResponse
+import io.javalin.http.servlet.JavalinServletContext
+import io.javalin.router.matcher.PathParamType
+
+/**
+ * The result of matching a request path against a [ParsedEndpoint].
+ *
+ * The path is matched only once, which also locates the path parameters.
+ * They are decoded the first time they are accessed, so handlers that never read them don't pay for it.
+ */
+class MatchResult internal constructor(
+    @JvmField val entry: ParsedEndpoint,
+    private val requestUri: String,
+    private val offsets: IntArray,
+) {
+
+    @Volatile // matches can be shared between requests through the route cache
+    private var pathParams: Map<String, String>? = null
+
+    /** True if the matched endpoint declares path parameters */
+    fun hasPathParams(): Boolean = offsets.isNotEmpty()
+
+    /** The decoded path parameters of the matched path */
+    fun pathParams(): Map<String, String> =
+        pathParams ?: entry.pathParser.pathParams(requestUri, offsets).also { pathParams = it }
+
+    /**
+     * Parses a path param as a long. Params of type [PathParamType.INT] or [PathParamType.LONG] are parsed straight
+     * from the request path, as they were validated during matching, unless they are percent-encoded.
+     * Other params are decoded first.
+     */
+    internal fun pathParamLong(name: String): Long {
+        val index = entry.pathParser.pathParamNames.indexOf(name)
+        require(index != -1) { "'$name' is not a valid path-param for '${entry.endpoint.path}'." }
+        val start = offsets[index * 2]
+        val end = offsets[index * 2 + 1]
+        val validated = when (entry.pathParser.pathParamType(index)) {
+            PathParamType.INT, PathParamType.LONG -> requestUri.indexOf('%', start) !in start until end
+            else -> false
+        }
+        return when {
+            validated -> java.lang.Long.parseLong(requestUri, start, end, 10)
+            else -> pathParams()[name]!!.toLongOrNull() ?: throw BadRequestResponse("Path parameter '$name' is not a valid long")
+        }
+    }
+
+    /** Runs the matched endpoint with the path params of this match */
+    fun handle(ctx: JavalinServletContext) =
+        entry.handle(ctx, this)
+
+}
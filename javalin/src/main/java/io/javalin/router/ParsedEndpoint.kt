@@ -9,14 +9,23 @@ class ParsedEndpoint(
     private val routerConfig: RouterConfig,
 ) {
 
-    private val pathParser = PathParser(endpoint.path, routerConfig)
+    internal val pathParser = PathParser(endpoint.path, routerConfig)
+
+    // every request path resolved to a route without path params shares this match
+    private val staticMatch: MatchResult? = if (pathParser.pathParamNames.isEmpty()) MatchResult(this, "", IntArray(0)) else null
 
     fun handle(ctx: JavalinServletContext, requestUri: String) {
-        handleWithPathParams(ctx, extractPathParams(requestUri))
+        when (val match = match(requestUri)) {
+            null -> invoke(ctx.update(endpoint))
+            else -> handle(ctx, match)
+        }
+    }
+
+    internal fun handle(ctx: JavalinServletContext, match: MatchResult) {
+        invoke(ctx.update(endpoint, match))
     }
 
-    internal fun handleWithPathParams(ctx: JavalinServletContext, pathParams: Map<String, String>) {
-        val updatedCtx = ctx.update(endpoint, pathParams)
+    private fun invoke(updatedCtx: JavalinServletContext) {
         when (val handlerWrapper = routerConfig.handlerWrapper) {
             null -> endpoint.handler.handle(updatedCtx)
             else -> handlerWrapper.wrap(endpoint).handle(updatedCtx)
@@ -29,4 +38,14 @@ class ParsedEndpoint(
     fun extractPathParams(requestUri: String): Map<String, String> =
         pathParser.extractPathParams(requestUri)
 
+    /**
+     * Matches the request path and locates the path params in a single pass.
+     * @return the match, or null if this endpoint doesn't match the request path
+     */
+    fun match(requestUri: String): MatchResult? {
+        if (staticMatch != null && (endpoint.path == "*" || endpoint.path == requestUri)) return staticMatch
+        val offsets = pathParser.match(requestUri) ?: return null
+        return staticMatch ?: MatchResult(this, requestUri, offsets)
+    }
+
 }
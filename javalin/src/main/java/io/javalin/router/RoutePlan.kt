@@ -0,0 +1,21 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin.router
+
+/**
+ * All handlers matching a request method and path, resolved in a single step.
+ * Each list is in registration order, [http] is the first matching http handler or null if there is none.
+ *
+ * @see InternalRouter.findRoutePlan
+ */
+class RoutePlan internal constructor(
+    @JvmField val before: List<MatchResult>,
+    @JvmField val beforeMatched: List<MatchResult>,
+    @JvmField val http: MatchResult?,
+    @JvmField val afterMatched: List<MatchResult>,
+    @JvmField val after: List<MatchResult>,
+)
@@ -6,59 +6,194 @@
 
 package io.javalin.router.matcher
 
+import io.javalin.config.RouterConfig
 import io.javalin.http.HandlerType
+import io.javalin.router.AllowedMethods
+import io.javalin.router.MatchResult
 import io.javalin.router.ParsedEndpoint
+import io.javalin.router.RoutePlan
 import java.util.Collections
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
 
-class PathMatcher {
+/**
+ * Finds the entries matching a request path.
+ *
+ * All entries and their indexes are kept in a [Snapshot], which is published through a single volatile reference,
+ * so lookups never take a lock. Until [enableCopyOnWrite] is called (when requests can be served), entries are added
+ * to the current snapshot in place. After that, every change builds a new snapshot and swaps it in atomically,
+ * so lookups running concurrently keep seeing a complete snapshot.
+ */
+class PathMatcher(private val routerConfig: RouterConfig) {
 
-    private val handlerEntries: MutableMap<HandlerType, MutableList<ParsedEndpoint>> =
-        HandlerType.values().associateWithTo(mutableMapOf()) { arrayListOf() }
+    private val writeLock = ReentrantLock()
 
-    private fun handlerEntries(handlerType: HandlerType) = handlerEntries[handlerType] ?: emptyList()
+    @Volatile
+    private var snapshot = Snapshot(routerConfig)
 
-    fun add(entry: ParsedEndpoint) {
-        val type = entry.endpoint.method
-        val path = entry.endpoint.path
+    private var copyOnWrite = false // guarded by writeLock
 
-        handlerEntries.putIfAbsent(type, arrayListOf()) // Ensure the handler type exists in the map (for user-defined http methods)
+    /** Makes every following change build a new snapshot, instead of changing the one lookups may be using */
+    fun enableCopyOnWrite() = writeLock.withLock {
+        copyOnWrite = true
+    }
 
-        if (type.isHttpMethod && handlerEntries[type]!!.find { it.endpoint.method == type && it.endpoint.path == path } != null) {
-            throw IllegalArgumentException("Handler with type='${type}' and path='${path}' already exists.")
-        }
+    fun add(entry: ParsedEndpoint) = addAll(listOf(entry))
 
-        handlerEntries[type]!!.add(entry)
+    /** Adds the entries with a single snapshot swap. If an entry is rejected, none of them are visible to lookups. */
+    fun addAll(entries: Collection<ParsedEndpoint>) = writeLock.withLock {
+        snapshot.rejectDuplicates(entries) // before anything is added, as entries are added in place until copy-on-write is enabled
+        val next = if (copyOnWrite) snapshot.copy() else snapshot
+        entries.forEach { next.add(it) }
+        snapshot = next
     }
 
-    fun findEntries(handlerType: HandlerType, requestUri: String?): List<ParsedEndpoint> {
-        val candidates = handlerEntries(handlerType)
-        if (requestUri == null) return Collections.unmodifiableList(candidates)
-        var firstMatch: ParsedEndpoint? = null
-        var allMatches: MutableList<ParsedEndpoint>? = null
-        for (candidate in candidates) {
-            if (!match(candidate, requestUri)) continue
-            if (firstMatch == null) {
-                firstMatch = candidate
-            } else {
-                if (allMatches == null) allMatches = ArrayList<ParsedEndpoint>(4).apply { add(firstMatch) }
-                allMatches.add(candidate)
-            }
-        }
-        return allMatches ?: firstMatch?.let { listOf(it) } ?: emptyList()
+    /** Removes all entries of the handler type with the given path, returns false if there were none */
+    fun remove(handlerType: HandlerType, path: String): Boolean = writeLock.withLock {
+        val current = snapshot
+        val remaining = current.entries.filterNot { it.endpoint.method == handlerType && it.endpoint.path == path }
+        if (remaining.size == current.entries.size) return@withLock false
+        snapshot = Snapshot(routerConfig).also { next -> remaining.forEach { next.add(it) } }
+        true
     }
 
-    fun findFirstEntry(handlerType: HandlerType, requestUri: String) =
-        handlerEntries(handlerType).firstOrNull { match(it, requestUri) }
+    /** Resolves all handlers that match a request against the same snapshot, so a concurrent route change can't be partially visible */
+    fun findRoutePlan(method: HandlerType, requestUri: String): RoutePlan {
+        val snapshot = snapshot
+        return RoutePlan(
+            before = snapshot.findMatches(HandlerType.BEFORE, requestUri),
+            beforeMatched = snapshot.findMatches(HandlerType.BEFORE_MATCHED, requestUri),
+            http = snapshot.findFirstMatch(method, requestUri),
+            afterMatched = snapshot.findMatches(HandlerType.AFTER_MATCHED, requestUri),
+            after = snapshot.findMatches(HandlerType.AFTER, requestUri),
+        )
+    }
+
+    fun findEntries(handlerType: HandlerType, requestUri: String?): List<ParsedEndpoint> =
+        snapshot.findEntries(handlerType, requestUri)
+
+    fun findFirstEntry(handlerType: HandlerType, requestUri: String): ParsedEndpoint? =
+        snapshot.findFirstEntry(handlerType, requestUri)
+
+    /** Like [findEntries], but returns the matches so the request path doesn't have to be matched again to extract path params */
+    fun findMatches(handlerType: HandlerType, requestUri: String): List<MatchResult> =
+        snapshot.findMatches(handlerType, requestUri)
+
+    /** Like [findFirstEntry], but returns the match so the request path doesn't have to be matched again to extract path params */
+    fun findFirstMatch(handlerType: HandlerType, requestUri: String): MatchResult? =
+        snapshot.findFirstMatch(handlerType, requestUri)
+
+    /** Finds the standard http methods that have an entry for the request path, with a single lookup */
+    fun findAllowedMethods(requestUri: String): AllowedMethods =
+        snapshot.findAllowedMethods(requestUri)
 
     fun hasEntries(handlerType: HandlerType, requestUri: String) =
         findFirstEntry(handlerType, requestUri) != null
 
-    fun allEntries() = handlerEntries.values.flatten()
+    fun allEntries() = snapshot.allEntries()
+
+    /** The entries and indexes of a [PathMatcher]. Only changed while it isn't visible to lookups, or before copy-on-write is enabled. */
+    private class Snapshot(private val routerConfig: RouterConfig) {
+
+        /** All entries in registration order, used to build copies */
+        val entries = ArrayList<ParsedEndpoint>()
+
+        private val handlerEntries: MutableMap<HandlerType, MutableList<ParsedEndpoint>> =
+            HandlerType.values().associateWithTo(mutableMapOf()) { arrayListOf() }
+
+        /** The paths of the http method entries, used to reject duplicates without scanning the entries */
+        private val registeredPaths: MutableMap<HandlerType, HashSet<String>> = mutableMapOf()
+
+        private val routeIndexes: MutableMap<HandlerType, RouteIndex<ParsedEndpoint>> = mutableMapOf()
+
+        /**
+         * Request paths that are answered without a lookup, mapped to the entry [findFirstEntry] resolves them to.
+         * Every path of a route without parameters or wildcards (and its trailing slash variant) is added on registration.
+         * The first matching entry of a path can't change once it exists, as routes added later always have lower precedence.
+         */
+        private val staticPaths: MutableMap<HandlerType, HashMap<String, ParsedEndpoint>> = mutableMapOf()
+
+        /** All routes of the standard http methods, tagged with the bit of their method, see [findAllowedMethods] */
+        private val methodIndex = RouteIndex<ParsedEndpoint>(routerConfig)
+
+        fun copy(): Snapshot = Snapshot(routerConfig).also { copy -> entries.forEach { copy.add(it) } }
+
+        private fun handlerEntries(handlerType: HandlerType) = handlerEntries[handlerType] ?: emptyList()
+
+        /** Throws if one of the entries has the same http method and path as an existing entry, or as another one of them */
+        fun rejectDuplicates(entries: Collection<ParsedEndpoint>) {
+            val added = HashSet<Pair<HandlerType, String>>()
+            for (entry in entries) {
+                val type = entry.endpoint.method
+                val path = entry.endpoint.path
+                if (type.isHttpMethod && (registeredPaths[type]?.contains(path) == true || !added.add(type to path))) {
+                    throw IllegalArgumentException("Handler with type='${type}' and path='${path}' already exists.")
+                }
+            }
+        }
+
+        fun add(entry: ParsedEndpoint) {
+            val type = entry.endpoint.method
+            val path = entry.endpoint.path
+
+            handlerEntries.putIfAbsent(type, arrayListOf()) // Ensure the handler type exists in the map (for user-defined http methods)
+
+            if (type.isHttpMethod && !registeredPaths.getOrPut(type) { HashSet() }.add(path)) {
+                throw IllegalArgumentException("Handler with type='${type}' and path='${path}' already exists.")
+            }
+
+            entries.add(entry)
+            handlerEntries[type]!!.add(entry)
+            routeIndexes.getOrPut(type) { RouteIndex(routerConfig) }.add(path, entry.pathParser, entry)
+            AllowedMethods.bitOf(type).takeIf { it != 0 }?.let { methodIndex.add(path, entry.pathParser, entry, it) }
+            if (entry.pathParser.isStatic()) {
+                addStaticPaths(type, path)
+            }
+        }
+
+        private fun addStaticPaths(type: HandlerType, path: String) {
+            val variants = when {
+                routerConfig.ignoreTrailingSlashes -> path.removeSuffix("/").let { listOf(it, "$it/") }
+                else -> listOf(path)
+            }
+            val paths = staticPaths.getOrPut(type) { HashMap() }
+            for (variant in variants) {
+                val key = staticPathKey(variant)
+                if (key in paths) continue
+                routeIndexes[type]!!.findFirst(key) { it.takeIf { match(it, key) } }?.let { paths[key] = it }
+            }
+        }
+
+        private fun staticPathKey(requestUri: String): String =
+            if (routerConfig.caseInsensitiveRoutes) foldCase(requestUri) else requestUri
+
+        fun findEntries(handlerType: HandlerType, requestUri: String?): List<ParsedEndpoint> {
+            if (requestUri == null) return Collections.unmodifiableList(handlerEntries(handlerType))
+            return routeIndexes[handlerType]?.findAll(requestUri) { it.takeIf { match(it, requestUri) } } ?: emptyList()
+        }
+
+        fun findFirstEntry(handlerType: HandlerType, requestUri: String): ParsedEndpoint? =
+            staticPaths[handlerType]?.get(staticPathKey(requestUri))
+                ?: routeIndexes[handlerType]?.findFirst(requestUri) { it.takeIf { match(it, requestUri) } }
+
+        fun findMatches(handlerType: HandlerType, requestUri: String): List<MatchResult> =
+            routeIndexes[handlerType]?.findAll(requestUri) { it.match(requestUri) } ?: emptyList()
+
+        fun findFirstMatch(handlerType: HandlerType, requestUri: String): MatchResult? =
+            staticPaths[handlerType]?.get(staticPathKey(requestUri))?.match(requestUri)
+                ?: routeIndexes[handlerType]?.findFirst(requestUri) { it.match(requestUri) }
+
+        fun findAllowedMethods(requestUri: String): AllowedMethods =
+            AllowedMethods.of(methodIndex.collectBits(requestUri) { match(it, requestUri) })
+
+        fun allEntries() = handlerEntries.values.flatten()
+
+        private fun match(entry: ParsedEndpoint, requestPath: String): Boolean = when (entry.endpoint.path) {
+            "*" -> true
+            requestPath -> true
+            else -> entry.matches(requestPath)
+        }
 
-    private fun match(entry: ParsedEndpoint, requestPath: String): Boolean = when (entry.endpoint.path) {
-        "*" -> true
-        requestPath -> true
-        else -> entry.matches(requestPath)
     }
 
 }
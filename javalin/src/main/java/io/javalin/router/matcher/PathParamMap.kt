@@ -0,0 +1,44 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin.router.matcher
+
+import io.javalin.http.servlet.urlDecode
+
+/**
+ * A read-only map of the path params of a request path.
+ *
+ * The param names are shared by all requests of a route, and the values are only stored as offsets into the
+ * request path. A value is decoded the first time it's read, so reading a single param doesn't decode the others.
+ */
+internal class PathParamMap(
+    private val names: Array<String>,
+    private val url: String,
+    private val offsets: IntArray,
+) : AbstractMap<String, String>() {
+
+    // decoded values, written at most once per index (a racing read decodes the same value again)
+    private val decodedValues = arrayOfNulls<String>(names.size)
+
+    override val size: Int get() = names.size
+
+    override fun isEmpty(): Boolean = names.isEmpty()
+
+    override fun containsKey(key: String): Boolean = names.indexOf(key) != -1
+
+    override fun get(key: String): String? = names.indexOf(key).let { if (it == -1) null else valueAt(it) }
+
+    override val entries: Set<Map.Entry<String, String>> get() = object : AbstractSet<Map.Entry<String, String>>() {
+        override val size: Int get() = names.size
+        override fun iterator(): Iterator<Map.Entry<String, String>> = names.indices.asSequence()
+            .map { index -> java.util.AbstractMap.SimpleImmutableEntry(names[index], valueAt(index)) }
+            .iterator()
+    }
+
+    private fun valueAt(index: Int): String =
+        decodedValues[index] ?: urlDecode(url.substring(offsets[index * 2], offsets[index * 2 + 1])).also { decodedValues[index] = it }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin.router.matcher
+
+import io.javalin.http.servlet.urlDecode
+
+// the characters of the types, also when percent-encoded (as the regexes are matched against the raw request path)
+private const val MINUS = "(?:-|%2[dD])"
+private const val DIGIT = "(?:[0-9]|%3[0-9])"
+private const val HEX = "(?:[0-9a-fA-F]|%3[0-9]|%[46][1-6])"
+
+/**
+ * The types a `{param}` segment can be restricted to, by appending the type name to the param name (ex: `{id:long}`).
+ * A request path only matches the route if the param value is of the given type,
+ * otherwise matching continues with the next route.
+ */
+enum class PathParamType(val typeName: String, internal val regex: String) {
+    INT("int", "$MINUS?$DIGIT+"),
+    LONG("long", "$MINUS?$DIGIT+"),
+    UUID("uuid", "$HEX{8}$MINUS$HEX{4}$MINUS$HEX{4}$MINUS$HEX{4}$MINUS$HEX{12}");
+
+    /**
+     * Checks if the characters of [value] from [start] (inclusive) to [end] (exclusive) are of this type.
+     * Values without percent-encoded characters are checked in place, without allocating, others are decoded first.
+     */
+    fun accepts(value: CharSequence, start: Int = 0, end: Int = value.length): Boolean {
+        for (i in start until end) {
+            if (value[i] == '%') {
+                val decoded = try { urlDecode(value.substring(start, end)) } catch (_: Exception) { return false }
+                return acceptsDecoded(decoded, 0, decoded.length)
+            }
+        }
+        return acceptsDecoded(value, start, end)
+    }
+
+    private fun acceptsDecoded(value: CharSequence, start: Int, end: Int): Boolean = when (this) {
+        INT -> isInteger(value, start, end, Int.MIN_VALUE.toLong(), Int.MAX_VALUE.toLong())
+        LONG -> isInteger(value, start, end, Long.MIN_VALUE, Long.MAX_VALUE)
+        UUID -> isUuid(value, start, end)
+    }
+
+    companion object {
+
+        /** Finds the type with the given name, or returns null if there is none */
+        @JvmStatic
+        fun of(typeName: String): PathParamType? = entries.firstOrNull { it.typeName == typeName }
+
+        private fun isInteger(value: CharSequence, start: Int, end: Int, min: Long, max: Long): Boolean {
+            val negative = start < end && value[start] == '-'
+            val digitsStart = if (negative) start + 1 else start
+            if (digitsStart == end) return false
+            val limit = if (negative) min else -max // accumulate negatively, as the negative range is larger
+            val multiplicationLimit = limit / 10
+            var result = 0L
+            for (i in digitsStart until end) {
+                val digit = value[i] - '0'
+                if (digit !in 0..9) return false
+                if (result < multiplicationLimit) return false
+                result *= 10
+                if (result < limit + digit) return false
+                result -= digit
+            }
+            return true
+        }
+
+        private fun isUuid(value: CharSequence, start: Int, end: Int): Boolean {
+            if (end - start != 36) return false
+            for (i in 0 until 36) {
+                val char = value[start + i]
+                val valid = when (i) {
+                    8, 13, 18, 23 -> char == '-'
+                    else -> char in '0'..'9' || char in 'a'..'f' || char in 'A'..'F'
+                }
+                if (!valid) return false
+            }
+            return true
+        }
+
+    }
+
+}
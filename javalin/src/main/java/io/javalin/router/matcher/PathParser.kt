@@ -1,7 +1,8 @@
 package io.javalin.router.matcher
 
 import io.javalin.config.RouterConfig
-import io.javalin.http.servlet.urlDecode
+import io.javalin.util.javalinLazy
+import kotlin.LazyThreadSafetyMode.PUBLICATION
 
 class PathParser(private val rawPath: String, routerConfig: RouterConfig) {
 
@@ -11,7 +12,7 @@ class PathParser(private val rawPath: String, routerConfig: RouterConfig) {
         }
     }
 
-    private val matchPathAndEverySubPath = rawPath.endsWith(">*") || rawPath.endsWith("}*")
+    internal val matchPathAndEverySubPath = rawPath.endsWith(">*") || rawPath.endsWith("}*")
     private val path: String = if (matchPathAndEverySubPath) rawPath.removeSuffix("*") else rawPath
 
     val segments: List<PathSegment> = path.split("/")
@@ -25,8 +26,21 @@ class PathParser(private val rawPath: String, routerConfig: RouterConfig) {
         }
     }
 
+    private val pathParamNameArray = pathParamNames.toTypedArray()
+
+    // the type of each path param, null for untyped params
+    private val pathParamTypes: Array<PathParamType?> = segments.flatMap { segment ->
+        when (segment) {
+            is PathSegment.MultipleSegments -> segment.innerSegments.filterIsInstance<PathSegment.Parameter>()
+            is PathSegment.Parameter -> listOf(segment)
+            else -> emptyList()
+        }
+    }.map { (it as? PathSegment.Parameter.SlashIgnoringParameter)?.type }.toTypedArray()
+
+    private val hasTypedPathParams = pathParamTypes.any { it != null }
+
     //compute matchRegex suffix :
-    private val regexSuffix = if (routerConfig.treatMultipleSlashesAsSingleSlash) {
+    internal val regexSuffix = if (routerConfig.treatMultipleSlashesAsSingleSlash) {
         // when multiple slashes are accepted we have to allow 0-n slashes when using ignoreTrailingSlashes
         // otherwise we also have to allow multiple slashes when only one slash is specified
         when {
@@ -49,27 +63,88 @@ class PathParser(private val rawPath: String, routerConfig: RouterConfig) {
         }
     }
 
-    private val regexOptions: Set<RegexOption> = when {
-        routerConfig.caseInsensitiveRoutes -> setOf(RegexOption.IGNORE_CASE)
-        else -> emptySet()
+    private val caseInsensitive = routerConfig.caseInsensitiveRoutes
+
+    // case-insensitive routes are matched by folding the case of the url (see foldCase), as RegexOption.IGNORE_CASE is a lot slower
+    private val regexSegments = if (caseInsensitive) segments.map { it.withFoldedCase() } else segments
+
+    // only compiled if the path has to be matched with a regex, which saves a lot of startup time for large route tables
+    private val matchRegex by javalinLazy(PUBLICATION) {
+        constructRegexList(routerConfig, matchPathAndEverySubPath, regexSegments, regexSuffix) { it.asRegexString() }
     }
+    private val pathParamRegex by javalinLazy(PUBLICATION) {
+        constructRegexList(routerConfig, matchPathAndEverySubPath, regexSegments, regexSuffix) { it.asGroupedRegexString() }
+    }
+
+    // regex-free matchers for the same alternatives as the regex lists, null if any of them needs a regex
+    private val segmentMatchers: List<SegmentMatcher>? =
+        constructSegmentMatcherList(routerConfig, matchPathAndEverySubPath, segments, regexSuffix)
 
-    private val matchRegex =
-        constructRegexList(routerConfig, matchPathAndEverySubPath, segments, regexSuffix, regexOptions) { it.asRegexString() }
-    private val pathParamRegex =
-        constructRegexList(routerConfig, matchPathAndEverySubPath, segments, regexSuffix, regexOptions) { it.asGroupedRegexString() }
+    /** True if the path has no parameters or wildcards, so it can only match a fixed set of request paths. */
+    internal fun isStatic(): Boolean =
+        !matchPathAndEverySubPath && segments.all { it is PathSegment.Normal.RegexEscaped }
 
-    fun matches(url: String): Boolean = matchRegex.any { url matches it }
+    fun matches(url: String): Boolean = when (val matchers = segmentMatchers) {
+        null -> if (hasTypedPathParams) match(url) != null else matchRegex.any { regexInput(url) matches it }
+        else -> matchers.any { it.matches(url, null) }
+    }
 
     fun extractPathParams(url: String): Map<String, String> {
         if (pathParamNames.isEmpty()) return emptyMap()
-        val index = if (matchRegex.size == 1) 0 else matchRegex.indexOfFirst { url matches it }
-        val paramValues = values(pathParamRegex[index], url)
-        return HashMap<String, String>(pathParamNames.size * 2).apply {
+        val offsets = match(url) ?: return emptyMap()
+        return pathParams(url, offsets)
+    }
+
+    /**
+     * Matches the url and returns the start (inclusive) and end (exclusive) offsets of every path parameter,
+     * the n-th parameter at `2n` and `2n + 1`, or null if the url doesn't match.
+     * Matching and locating the parameters is done in a single pass, so the path params can be decoded later on demand.
+     */
+    internal fun match(url: String): IntArray? {
+        val offsets = if (pathParamNames.isEmpty()) NO_OFFSETS else IntArray(pathParamNames.size * 2)
+        when (val matchers = segmentMatchers) {
+            null -> return matchWithRegex(url, offsets)
+            else -> for (matcher in matchers) {
+                if (matcher.matches(url, offsets)) return offsets
+            }
+        }
+        return null
+    }
+
+    private fun matchWithRegex(url: String, offsets: IntArray): IntArray? {
+        val input = regexInput(url)
+        if (offsets.isEmpty()) {
+            return if (matchRegex.any { input matches it }) offsets else null
+        }
+        if (input.length != url.length) return null // folding never changes the length, but the offsets rely on it
+        for (regex in pathParamRegex) {
+            val groups = regex.matchEntire(input)?.groups ?: continue
             for (i in pathParamNames.indices) {
-                put(pathParamNames[i], urlDecode(paramValues[i]))
+                val range = groups[i + 1]?.range ?: IntRange.EMPTY
+                offsets[i * 2] = range.first
+                offsets[i * 2 + 1] = range.last + 1
             }
+            if (hasTypedPathParams && !typesAccepted(url, offsets)) continue // the regex can't check the value ranges
+            return offsets
         }
+        return null
+    }
+
+    private fun regexInput(url: String): String =
+        if (caseInsensitive) foldCase(url) else url
+
+    private fun typesAccepted(url: String, offsets: IntArray): Boolean =
+        pathParamTypes.indices.all { pathParamTypes[it]?.accepts(url, offsets[it * 2], offsets[it * 2 + 1]) ?: true }
+
+    /** The type of the n-th path param, or null if it's untyped */
+    internal fun pathParamType(index: Int): PathParamType? = pathParamTypes[index]
+
+    /** The path params located by [match], decoded when they are read */
+    internal fun pathParams(url: String, offsets: IntArray): Map<String, String> =
+        if (pathParamNames.isEmpty()) emptyMap() else PathParamMap(pathParamNameArray, url, offsets)
+
+    private companion object {
+        private val NO_OFFSETS = IntArray(0)
     }
 
 }
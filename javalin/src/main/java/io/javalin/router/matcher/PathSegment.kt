@@ -31,8 +31,8 @@ sealed class PathSegment {
     }
 
     sealed class Parameter(val name: String) : PathSegment() {
-        class SlashIgnoringParameter(name: String) : Parameter(name) {
-            override fun asRegexString(): String = "[^/]+?" // Accept everything except slash
+        class SlashIgnoringParameter(name: String, val type: PathParamType? = null) : Parameter(name) {
+            override fun asRegexString(): String = type?.regex ?: "[^/]+?" // Accept everything except slash
             override fun asGroupedRegexString(): String = asRegexString().grouped()
         }
 
@@ -70,9 +70,22 @@ internal fun createNormal(string: String, enableRegex: Boolean = false) = if (en
     RegexEscaped(string)
 }
 
-internal fun createSlashIgnoringParam(string: String) = SlashIgnoringParameter(string)
+internal fun createSlashIgnoringParam(string: String): SlashIgnoringParameter {
+    val type = PathParamType.of(string.substringAfterLast(':', missingDelimiterValue = ""))
+    return when (type) { // a name like {a:b} without a known type is kept as it is
+        null -> SlashIgnoringParameter(string)
+        else -> SlashIgnoringParameter(string.substringBeforeLast(':'), type)
+    }
+}
 internal fun createSlashAcceptingParam(string: String) = SlashAcceptingParameter(string)
 
+/** Returns the segment with the case of its literal content folded, see [foldCase] */
+internal fun PathSegment.withFoldedCase(): PathSegment = when (this) {
+    is RegexEscaped -> RegexEscaped(foldCase(content))
+    is MultipleSegments -> MultipleSegments(innerSegments.map { it.withFoldedCase() })
+    else -> this
+}
+
 internal fun PathSegment.pathParamNames(): List<String> {
     return when (this) {
         is Normal, is Wildcard -> emptyList()
@@ -0,0 +1,183 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin.router.matcher
+
+import io.javalin.config.RouterConfig
+import io.javalin.router.matcher.PathSegment.Normal.RegexEscaped
+import io.javalin.router.matcher.PathSegment.Parameter.SlashIgnoringParameter
+
+/**
+ * A prefix tree of routes keyed on path segments, used to narrow down the candidates for a request path.
+ *
+ * Every route is inserted along its leading literal ([RegexEscaped]) and single-segment parameter
+ * ([SlashIgnoringParameter]) segments. Once a segment that can span several request segments is
+ * encountered (wildcards, slash-accepting parameters, mixed segments), the route is attached to the
+ * current node as a *prefix* route, which is a candidate for every request path that reaches that node.
+ * Routes that are fully indexed are attached as *terminal* routes, which are candidates for request
+ * paths ending at the node.
+ *
+ * The index never rejects a route that could match, it only produces candidates. Callers match the
+ * candidates, and the registration order is used to resolve precedence between them, so the lookup
+ * behaves exactly like a linear scan over all routes while only visiting the nodes along the request path.
+ */
+internal class RouteIndex<T : Any>(private val routerConfig: RouterConfig) {
+
+    private class Route<T>(@JvmField val order: Int, @JvmField val value: T, @JvmField val bits: Int)
+
+    private class Node<T> {
+        var bits = 0 // union of the bits of all routes that are candidates at this node or one of its descendants
+        var staticChildren: HashMap<String, Node<T>>? = null
+        var paramChild: Node<T>? = null
+        var prefixRoutes: MutableList<Route<T>>? = null
+        var terminalRoutes: MutableList<Route<T>>? = null
+    }
+
+    private val root = Node<T>()
+    private var size = 0
+
+    /** Adds a route, optionally tagged with [bits] that can be collected with [collectBits]. */
+    fun add(rawPath: String, parser: PathParser, value: T, bits: Int = 0) {
+        val route = Route(size++, value, bits)
+        root.bits = root.bits or bits
+        if (rawPath.contains("//")) { // the regex ignores empty segments of the route, so only a full scan can honor it
+            root.prefixRoutes().add(route)
+            return
+        }
+        var node = root
+        for (segment in parser.segments) {
+            node.bits = node.bits or bits
+            node = when (segment) {
+                is RegexEscaped -> node.staticChildren().getOrPut(segmentKey(segment.content)) { Node() }
+                is SlashIgnoringParameter -> node.paramChild ?: Node<T>().also { node.paramChild = it }
+                else -> {
+                    node.prefixRoutes().add(route)
+                    return
+                }
+            }
+        }
+        node.bits = node.bits or bits
+        when {
+            parser.matchPathAndEverySubPath -> node.prefixRoutes().add(route)
+            else -> node.terminalRoutes().add(route)
+        }
+    }
+
+    /** Returns the result of the earliest registered candidate for the given path that [match] returns a result for. */
+    fun <R : Any> findFirst(requestUri: String, match: (T) -> R?): R? {
+        val finder = FirstMatchFinder(match)
+        walk(root, requestUri, startOf(requestUri), finder)
+        return finder.result
+    }
+
+    /** Returns the results of all candidates for the given path that [match] returns a result for, in registration order. */
+    fun <R : Any> findAll(requestUri: String, match: (T) -> R?): List<R> {
+        val collector = AllMatchesCollector(match)
+        walk(root, requestUri, startOf(requestUri), collector)
+        val found = collector.found ?: return emptyList()
+        if (found.size == 1) return listOf(found[0].second)
+        found.sortBy { it.first }
+        return found.map { it.second }
+    }
+
+    /**
+     * Returns the union of the bits of all candidates for the given path that [match] returns true for.
+     * Candidates and subtrees that can't add a new bit are skipped without being matched.
+     */
+    fun collectBits(requestUri: String, match: (T) -> Boolean): Int {
+        val collector = BitsCollector(match)
+        walk(root, requestUri, startOf(requestUri), collector)
+        return collector.bits
+    }
+
+    private fun interface Visitor<T> {
+        fun visit(routes: List<Route<T>>)
+        fun skip(nodeBits: Int): Boolean = false
+    }
+
+    private class FirstMatchFinder<T, R : Any>(private val match: (T) -> R?) : Visitor<T> {
+        private var order = Int.MAX_VALUE
+        var result: R? = null
+        override fun visit(routes: List<Route<T>>) {
+            for (route in routes) { // routes of a node are sorted by order, so we can stop at the first match
+                if (order < route.order) return
+                val matched = match(route.value) ?: continue
+                order = route.order
+                result = matched
+                return
+            }
+        }
+    }
+
+    private class AllMatchesCollector<T, R : Any>(private val match: (T) -> R?) : Visitor<T> {
+        var found: MutableList<Pair<Int, R>>? = null
+        override fun visit(routes: List<Route<T>>) {
+            for (route in routes) {
+                val matched = match(route.value) ?: continue
+                (found ?: ArrayList<Pair<Int, R>>(4).also { found = it }).add(route.order to matched)
+            }
+        }
+    }
+
+    private class BitsCollector<T>(private val match: (T) -> Boolean) : Visitor<T> {
+        var bits = 0
+        override fun skip(nodeBits: Int): Boolean = nodeBits and bits.inv() == 0
+        override fun visit(routes: List<Route<T>>) {
+            for (route in routes) {
+                if (route.bits and bits.inv() != 0 && match(route.value)) bits = bits or route.bits
+            }
+        }
+    }
+
+    private fun startOf(requestUri: String): Int =
+        if (requestUri.startsWith('/')) 1 else 0
+
+    private fun walk(node: Node<T>, uri: String, position: Int, visitor: Visitor<T>) {
+        if (visitor.skip(node.bits)) return
+        node.prefixRoutes?.let { visitor.visit(it) }
+        var start = position
+        if (routerConfig.treatMultipleSlashesAsSingleSlash) {
+            while (start < uri.length && uri[start] == '/') start++
+        }
+        if (start >= uri.length) {
+            node.terminalRoutes?.let { visitor.visit(it) }
+            return
+        }
+        val end = uri.indexOf('/', start).let { if (it == -1) uri.length else it }
+        if (end == start) return // an empty segment can only be matched by prefix routes
+        node.staticChildren?.get(segmentKey(uri.substring(start, end)))?.let { walk(it, uri, end + 1, visitor) }
+        node.paramChild?.let { walk(it, uri, end + 1, visitor) }
+    }
+
+    private fun segmentKey(segment: String): String =
+        if (routerConfig.caseInsensitiveRoutes) foldCase(segment) else segment
+
+    private fun Node<T>.staticChildren() = staticChildren ?: HashMap<String, Node<T>>().also { staticChildren = it }
+    private fun Node<T>.prefixRoutes() = prefixRoutes ?: ArrayList<Route<T>>(2).also { prefixRoutes = it }
+    private fun Node<T>.terminalRoutes() = terminalRoutes ?: ArrayList<Route<T>>(2).also { terminalRoutes = it }
+
+}
+
+/**
+ * Folds the case of every code point the same way case-insensitive [Regex] matching compares them,
+ * so two strings that match each other ignoring case produce the same key.
+ */
+internal fun foldCase(value: String): String {
+    var i = 0
+    while (i < value.length) { // fast path: nothing to fold
+        val char = value[i]
+        if (char in 'A'..'Z' || char.code >= 0x80) break
+        i++
+    }
+    if (i == value.length) return value
+    val folded = StringBuilder(value.length).append(value, 0, i)
+    while (i < value.length) {
+        val codePoint = value.codePointAt(i)
+        folded.appendCodePoint(Character.toLowerCase(Character.toUpperCase(codePoint)))
+        i += Character.charCount(codePoint)
+    }
+    return folded.toString()
+}
@@ -23,6 +23,18 @@ internal fun constructRegexList(
     return listOf(constructRegex(options, segments, regexSuffix, regexOptions, mapper)) + addRegexForExtraWildcard()
 }
 
+internal fun constructSegmentMatcherList(
+    options: RouterConfig,
+    matchEverySubPath: Boolean,
+    segments: List<PathSegment>,
+    regexSuffix: String,
+): List<SegmentMatcher>? {
+    val matcher = SegmentMatcher.compile(segments, regexSuffix, options) ?: return null
+    if (!matchEverySubPath) return listOf(matcher)
+    val subPathMatcher = SegmentMatcher.compile(segments + Wildcard, regexSuffix, options) ?: return null
+    return listOf(matcher, subPathMatcher)
+}
+
 internal fun constructRegex(
     options: RouterConfig,
     segments: List<PathSegment>,
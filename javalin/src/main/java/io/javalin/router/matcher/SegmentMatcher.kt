@@ -0,0 +1,155 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin.router.matcher
+
+import io.javalin.config.RouterConfig
+import io.javalin.router.matcher.PathSegment.Normal.RegexEscaped
+import io.javalin.router.matcher.PathSegment.Parameter.SlashAcceptingParameter
+import io.javalin.router.matcher.PathSegment.Parameter.SlashIgnoringParameter
+import io.javalin.router.matcher.PathSegment.Wildcard
+
+/**
+ * Matches request paths against parsed path segments by scanning the path once, without regular expressions.
+ * It accepts exactly the same paths as the regex built by [constructRegex] for the same segments and suffix,
+ * and records the start and end offsets of every path parameter into a caller provided array.
+ *
+ * Only literal segments and `{param}` segments (including typed ones, see [PathParamType]) are supported, optionally followed by a trailing wildcard
+ * or `<param>` segment. Other paths have to be matched with the regex, see [SegmentMatcher.compile].
+ */
+internal class SegmentMatcher private constructor(
+    private val literals: Array<String?>, // null for a {param} segment
+    private val types: Array<PathParamType?>, // the type of each {param} segment, if it has one
+    private val tail: Tail,
+    private val suffix: Suffix,
+    private val multipleSlashes: Boolean,
+    private val ignoreCase: Boolean,
+) {
+
+    enum class Tail { NONE, WILDCARD, PARAMETER }
+
+    /** The regex suffixes created by [PathParser], representing the allowed trailing slashes. */
+    enum class Suffix(val regex: String, val minSlashes: Int, val maxSlashes: Int) {
+        NONE("", 0, 0),
+        OPTIONAL("/?", 0, 1),
+        ONE("/", 1, 1),
+        AT_LEAST_ONE("/+", 1, Int.MAX_VALUE),
+        ANY("/*", 0, Int.MAX_VALUE),
+    }
+
+    /**
+     * Matches the full path, and if [offsets] is given, writes the start (inclusive) and end (exclusive)
+     * offsets of the n-th path parameter to `offsets[2n]` and `offsets[2n + 1]`.
+     */
+    fun matches(path: String, offsets: IntArray?): Boolean {
+        if (path.isEmpty() || path[0] != '/') return false
+        var position = skipSlashes(path, 1)
+        var parameter = 0
+        for (i in literals.indices) {
+            if (i > 0) {
+                if (position >= path.length || path[position] != '/') return false
+                position = skipSlashes(path, position + 1)
+            }
+            val literal = literals[i]
+            if (literal != null) {
+                if (!path.regionMatches(position, literal, 0, literal.length, ignoreCase)) return false
+                position += literal.length
+            } else {
+                val end = path.indexOf('/', position).let { if (it == -1) path.length else it }
+                if (end == position) return false
+                val type = types[i]
+                if (type != null && !type.accepts(path, position, end)) return false
+                offsets?.let {
+                    it[parameter * 2] = position
+                    it[parameter * 2 + 1] = end
+                }
+                parameter++
+                position = end
+            }
+        }
+        return when (tail) {
+            Tail.NONE -> trailingSlashes(path, position)
+            Tail.WILDCARD -> matchesWildcard(path, if (literals.isEmpty()) 0 else position)
+            Tail.PARAMETER -> matchesParameter(path, position, parameter, offsets)
+        }
+    }
+
+    private fun skipSlashes(path: String, from: Int): Int {
+        if (!multipleSlashes) return from
+        var position = from
+        while (position < path.length && path[position] == '/') position++
+        return position
+    }
+
+    /** Checks that everything after [from] is a sequence of slashes allowed by the suffix */
+    private fun trailingSlashes(path: String, from: Int): Boolean {
+        val slashes = path.length - from
+        if (slashes < suffix.minSlashes || slashes > suffix.maxSlashes) return false
+        for (i in from until path.length) {
+            if (path[i] != '/') return false
+        }
+        return true
+    }
+
+    /** A wildcard accepts anything, so only the separator and a required trailing slash have to be present */
+    private fun matchesWildcard(path: String, separator: Int): Boolean {
+        if (separator >= path.length || path[separator] != '/') return false
+        return suffix.minSlashes == 0 || (path.length - separator >= 2 && path.endsWith('/'))
+    }
+
+    /** A `<param>` accepts at least one character and leaves as few trailing slashes as the suffix allows */
+    private fun matchesParameter(path: String, separator: Int, parameter: Int, offsets: IntArray?): Boolean {
+        var start = separator
+        if (literals.isNotEmpty()) {
+            if (start >= path.length || path[start] != '/') return false
+            start++
+        }
+        val end = when {
+            path.length - start >= 2 && path.endsWith('/') && suffix.maxSlashes > 0 -> path.length - 1
+            suffix.minSlashes > 0 -> return false
+            else -> path.length
+        }
+        if (end <= start) return false
+        offsets?.let {
+            it[parameter * 2] = start
+            it[parameter * 2 + 1] = end
+        }
+        return true
+    }
+
+    companion object {
+
+        /**
+         * Compiles a matcher for the given segments, or returns null if the segments can only be matched with a regex.
+         * Mixed segments (`{name}.json`) and wildcards or `<param>` segments that aren't the last segment are not supported.
+         */
+        fun compile(segments: List<PathSegment>, regexSuffix: String, routerConfig: RouterConfig): SegmentMatcher? {
+            val suffix = Suffix.entries.firstOrNull { it.regex == regexSuffix } ?: return null
+            val tail = when (segments.lastOrNull()) {
+                is Wildcard -> Tail.WILDCARD
+                is SlashAcceptingParameter -> Tail.PARAMETER
+                else -> Tail.NONE
+            }
+            val literalSegments = if (tail == Tail.NONE) segments else segments.dropLast(1)
+            val literals = arrayOfNulls<String>(literalSegments.size)
+            val types = arrayOfNulls<PathParamType>(literalSegments.size)
+            literalSegments.forEachIndexed { index, segment ->
+                when (segment) {
+                    is RegexEscaped -> literals[index] = segment.content
+                    is SlashIgnoringParameter -> types[index] = segment.type
+                    else -> return null
+                }
+            }
+            val multipleSlashes = routerConfig.treatMultipleSlashesAsSingleSlash
+            if (multipleSlashes && tail == Tail.PARAMETER) return null // a greedy separator may have to give back slashes to the parameter
+            if (multipleSlashes && segments.isEmpty() && suffix.minSlashes > 0) return null // same for the suffix
+            if (tail == Tail.PARAMETER && suffix.maxSlashes > 1) return null
+            return SegmentMatcher(literals, types, tail, suffix, multipleSlashes, routerConfig.caseInsensitiveRoutes)
+        }
+
+    }
+
+}
@@ -71,7 +71,10 @@ enum class CoreDependency(
 
     // Compression
     BROTLI4J("Brotli4j", "com.aayushatharva.brotli4j.Brotli4jLoader", "com.aayushatharva.brotli4j", "brotli4j", "brotli4j.version"),
-    ZSTD_JNI("Zstd-jni", "com.github.luben.zstd.Zstd", "com.github.luben", "zstd-jni", "zstd.jni.version");
+    ZSTD_JNI("Zstd-jni", "com.github.luben.zstd.Zstd", "com.github.luben", "zstd-jni", "zstd.jni.version"),
+
+    // Coroutines
+    KOTLINX_COROUTINES("Kotlinx Coroutines", "kotlinx.coroutines.CoroutineScope", "org.jetbrains.kotlinx", "kotlinx-coroutines-core", "kotlinx.coroutines.version");
 
     // baked from the pom into the jar's pom.properties; "..." only when running from source
     override val version: String get() = BuildProperties[versionProperty] ?: "..."
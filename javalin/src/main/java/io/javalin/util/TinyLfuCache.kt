@@ -0,0 +1,258 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin.util
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * A bounded, concurrent cache with a W-TinyLFU eviction policy.
+ *
+ * New entries are placed in a small LRU *window*. Entries leaving the window have to compete with the
+ * least recently used entry of the *main* segmented LRU, and the entry that was accessed less often
+ * (according to a [FrequencySketch]) is evicted. This keeps one-off keys from flushing out the hot set.
+ *
+ * Reads are lock free. Accesses are recorded on the eviction policy only if its lock isn't contended,
+ * so under heavy load some accesses are dropped, which only makes the policy slightly less accurate.
+ *
+ * Besides the number of entries, the cache can be bounded by the total [weigher] weight of its values (ex: in bytes).
+ */
+internal class TinyLfuCache<K : Any, V : Any>(
+    private val maximumSize: Int,
+    private val maximumWeight: Long = Long.MAX_VALUE,
+    private val weigher: (V) -> Int = { 1 },
+) {
+
+    init {
+        require(maximumSize > 0) { "Maximum size must be positive, was $maximumSize" }
+    }
+
+    private enum class Segment { WINDOW, PROBATION, PROTECTED }
+
+    private class Node<K, V>(@JvmField val key: K, @JvmField val value: V, @JvmField val weight: Int) {
+        @JvmField var segment = Segment.WINDOW
+        @JvmField var prev: Node<K, V>? = null
+        @JvmField var next: Node<K, V>? = null
+    }
+
+    /** A doubly linked list ordered from least to most recently used */
+    private class AccessOrder<K, V> {
+        var head: Node<K, V>? = null
+        var tail: Node<K, V>? = null
+        var size = 0
+
+        fun addLast(node: Node<K, V>) {
+            node.prev = tail
+            node.next = null
+            tail?.next = node
+            tail = node
+            if (head == null) head = node
+            size++
+        }
+
+        fun remove(node: Node<K, V>) {
+            node.prev?.let { it.next = node.next } ?: run { head = node.next }
+            node.next?.let { it.prev = node.prev } ?: run { tail = node.prev }
+            node.prev = null
+            node.next = null
+            size--
+        }
+
+        fun moveToLast(node: Node<K, V>) {
+            if (tail === node) return
+            remove(node)
+            addLast(node)
+        }
+    }
+
+    private val data = ConcurrentHashMap<K, Node<K, V>>()
+    private val lock = ReentrantLock()
+    private val sketch = FrequencySketch(maximumSize)
+    private val window = AccessOrder<K, V>()
+    private val probation = AccessOrder<K, V>()
+    private val protected = AccessOrder<K, V>()
+    private val maxWindow = maxOf(1, maximumSize / 100)
+    private val maxProtected = (maximumSize - maxWindow) * 4 / 5
+    private var weight = 0L // guarded by lock
+
+    private val hits = LongAdder()
+    private val misses = LongAdder()
+
+    /** Number of lookups that found a value */
+    fun hitCount(): Long = hits.sum()
+
+    /** Number of lookups that didn't find a value */
+    fun missCount(): Long = misses.sum()
+
+    fun size(): Int = data.size
+
+    /** The total weight of the values in the cache */
+    fun weight(): Long = lock.withLock { weight }
+
+    fun get(key: K): V? {
+        val node = data[key]
+        if (node == null) misses.increment() else hits.increment()
+        if (lock.tryLock()) {
+            try {
+                sketch.increment(key)
+                if (node != null && data[key] === node) onAccess(node)
+            } finally {
+                lock.unlock()
+            }
+        }
+        return node?.value
+    }
+
+    /**
+     * Stores the value if [isValid] returns true while holding the policy lock.
+     * This lets callers reject values that were computed from state that was invalidated (with [clear]) in the meantime.
+     */
+    fun put(key: K, value: V, isValid: () -> Boolean = { true }) = lock.withLock {
+        if (!isValid()) return@withLock
+        val valueWeight = weigher(value)
+        data[key]?.let { evict(it) }
+        if (valueWeight > maximumWeight) return@withLock // would evict everything else
+        val node = Node(key, value, valueWeight)
+        data[key] = node
+        window.addLast(node)
+        weight += valueWeight
+        evict()
+    }
+
+    fun remove(key: K) = lock.withLock {
+        data[key]?.let { evict(it) }
+    }
+
+    /** Removes all entries matching the predicate, which takes time proportional to the size of the cache */
+    fun removeIf(predicate: (K, V) -> Boolean) = lock.withLock {
+        data.values.filter { predicate(it.key, it.value) }.forEach { evict(it) }
+    }
+
+    fun clear() = lock.withLock {
+        data.clear()
+        weight = 0
+        listOf(window, probation, protected).forEach {
+            it.head = null
+            it.tail = null
+            it.size = 0
+        }
+    }
+
+    private fun onAccess(node: Node<K, V>) {
+        when (node.segment) {
+            Segment.WINDOW -> window.moveToLast(node)
+            Segment.PROTECTED -> protected.moveToLast(node)
+            Segment.PROBATION -> { // promote to the protected segment, and demote its least recently used entry if it's full
+                probation.remove(node)
+                node.segment = Segment.PROTECTED
+                protected.addLast(node)
+                if (protected.size > maxProtected) {
+                    val demoted = protected.head!!
+                    protected.remove(demoted)
+                    demoted.segment = Segment.PROBATION
+                    probation.addLast(demoted)
+                }
+            }
+        }
+    }
+
+    private fun evict() {
+        while (window.size > maxWindow) { // entries leaving the window become candidates for the main segments
+            val candidate = window.head!!
+            window.remove(candidate)
+            candidate.segment = Segment.PROBATION
+            probation.addLast(candidate)
+            if (!overflows()) continue
+            val victim = probation.head.takeIf { it !== candidate } ?: protected.head ?: candidate
+            when {
+                sketch.frequency(candidate.key) > sketch.frequency(victim.key) -> evict(victim)
+                else -> evict(candidate)
+            }
+        }
+        while (overflows()) { // only happens when the window is larger than the cache itself, or for heavy entries
+            evict(window.head ?: probation.head ?: protected.head!!)
+        }
+    }
+
+    private fun overflows() = data.size > maximumSize || weight > maximumWeight
+
+    private fun evict(node: Node<K, V>) {
+        unlink(node)
+        weight -= node.weight
+        data.remove(node.key, node)
+    }
+
+    private fun unlink(node: Node<K, V>) = when (node.segment) {
+        Segment.WINDOW -> window.remove(node)
+        Segment.PROBATION -> probation.remove(node)
+        Segment.PROTECTED -> protected.remove(node)
+    }
+
+}
+
+/**
+ * A count-min sketch estimating how often keys were accessed, using four 4-bit counters per key.
+ * All counters are halved periodically, so the estimates reflect recent popularity rather than all-time popularity.
+ * Not thread safe.
+ */
+internal class FrequencySketch(maximumSize: Int) {
+
+    private val width = Integer.highestOneBit(maxOf(16, maximumSize) - 1) shl 1
+    private val table = ByteArray(width * DEPTH)
+    private val resetThreshold = 10 * maxOf(16, maximumSize)
+    private var additions = 0
+
+    fun frequency(key: Any): Int {
+        val hash = spread(key.hashCode())
+        var frequency = Int.MAX_VALUE
+        for (row in 0 until DEPTH) {
+            frequency = minOf(frequency, table[indexOf(hash, row)].toInt())
+        }
+        return frequency
+    }
+
+    fun increment(key: Any) {
+        val hash = spread(key.hashCode())
+        var added = false
+        for (row in 0 until DEPTH) {
+            val index = indexOf(hash, row)
+            if (table[index] < MAX_COUNT) {
+                table[index]++
+                added = true
+            }
+        }
+        if (added && ++additions >= resetThreshold) {
+            reset()
+        }
+    }
+
+    private fun reset() {
+        for (i in table.indices) {
+            table[i] = (table[i].toInt() ushr 1).toByte()
+        }
+        additions /= 2
+    }
+
+    private fun indexOf(hash: Int, row: Int): Int {
+        val h = (hash + SEEDS[row]) * SEEDS[row]
+        return row * width + ((h + (h ushr 16)) and (width - 1))
+    }
+
+    private fun spread(hash: Int): Int {
+        val h = hash * -0x61c88647
+        return h xor (h ushr 16)
+    }
+
+    private companion object {
+        const val DEPTH = 4
+        const val MAX_COUNT: Byte = 15
+        val SEEDS = intArrayOf(-0x3a1e5a2b, -0x4498517b, 0x7a646e4d, -0x7f4a7c15)
+    }
+
+}
@@ -27,11 +27,11 @@ class WsConnection(
 
     private lateinit var session: Session
 
-    // Cache matched handlers since the request URI doesn't change for a connection
-    private val requestUri = upgradeCtx.extractedData.requestUri
-    private val beforeHandlers = matcher.findBeforeHandlerEntries(requestUri)
-    private val endpointHandler = matcher.findEndpointHandlerEntry(requestUri)!! // never null, 404 is handled in JavalinJettyServlet
-    private val afterHandlers = matcher.findAfterHandlerEntries(requestUri)
+    // Cache matched handlers since the request URI doesn't change for a connection (usually resolved during the upgrade already)
+    private val routePlan = upgradeCtx.wsRoutePlan ?: matcher.findRoutePlan(upgradeCtx.extractedData.requestUri)
+    private val beforeHandlers = routePlan.before
+    private val endpointHandler = routePlan.endpoint!! // never null, 404 is handled in JavalinJettyServlet
+    private val afterHandlers = routePlan.after
 
     override fun onWebSocketOpen(session: Session) {
         this.session = session
@@ -8,8 +8,13 @@ package io.javalin.websocket
 
 import io.javalin.config.RouterConfig
 import io.javalin.router.matcher.PathParser
+import io.javalin.router.matcher.RouteIndex
 import io.javalin.security.RouteRole
+import io.javalin.util.TinyLfuCache
+import io.javalin.util.javalinLazy
 import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.LazyThreadSafetyMode.SYNCHRONIZED
 
 data class WsHandlerEntry(
     val type: WsHandlerType,
@@ -18,25 +23,57 @@ data class WsHandlerEntry(
     val wsConfig: WsConfig,
     val roles: Set<RouteRole>
 ) {
-    private val pathParser = PathParser(path, routerConfig)
+    @get:JvmSynthetic
+    internal val pathParser = PathParser(path, routerConfig)
     fun matches(path: String) = pathParser.matches(path)
     fun extractPathParams(path: String) = pathParser.extractPathParams(path)
 }
 
+/**
+ * The WebSocket handlers matching a request path: the before handlers, the endpoint handler (if any) and the after handlers.
+ * Resolved once per upgrade request, and shared by the connection.
+ */
+class WsRoutePlan internal constructor(
+    @JvmField val before: List<WsHandlerEntry>,
+    @JvmField val endpoint: WsHandlerEntry?,
+    @JvmField val after: List<WsHandlerEntry>,
+)
+
 /**
  * Performs match operations on WebSocket paths.
+ * The handlers of each type are kept in a [RouteIndex], like the http handlers, so only the handlers along the path are matched.
+ * If [RouterConfig.routeCacheSize] is set, the [WsRoutePlan] of paths with an endpoint handler are cached.
  */
-class WsPathMatcher {
+class WsPathMatcher @JvmOverloads constructor(private val routerConfig: RouterConfig = RouterConfig()) {
 
     private val wsHandlerEntries = WsHandlerType
         .entries
         .associateWithTo(EnumMap<WsHandlerType, MutableList<WsHandlerEntry>>(WsHandlerType::class.java)) { mutableListOf() }
 
+    // the paths of each handler type, used to reject duplicates without scanning the entries
+    private val registeredPaths = WsHandlerType
+        .entries
+        .associateWithTo(EnumMap<WsHandlerType, HashSet<String>>(WsHandlerType::class.java)) { HashSet() }
+
+    private val routeIndexes = WsHandlerType
+        .entries
+        .associateWithTo(EnumMap<WsHandlerType, RouteIndex<WsHandlerEntry>>(WsHandlerType::class.java)) { RouteIndex(routerConfig) }
+
+    private val routePlanCacheLazy = javalinLazy(SYNCHRONIZED) { // created on first use, after the router config is final
+        routerConfig.routeCacheSize.takeIf { it > 0 }?.let { TinyLfuCache<String, WsRoutePlan>(it) }
+    }
+    private val routePlanCache by routePlanCacheLazy
+
+    private val routesVersion = AtomicInteger() // incremented after every route change
+
     fun add(entry: WsHandlerEntry) {
-        if (wsHandlerEntries[entry.type]!!.find { it.type == entry.type && it.path == entry.path } != null) {
+        if (!registeredPaths[entry.type]!!.add(entry.path)) {
             throw IllegalArgumentException("Handler with type='${entry.type}' and path='${entry.path}' already exists.")
         }
         wsHandlerEntries[entry.type]!!.add(entry)
+        routeIndexes[entry.type]!!.add(entry.path, entry.pathParser, entry)
+        routesVersion.incrementAndGet()
+        if (routePlanCacheLazy.isInitialized()) routePlanCache?.clear()
     }
 
     fun allEntries() = wsHandlerEntries.values.flatten()
@@ -45,12 +82,32 @@ class WsPathMatcher {
     fun findBeforeHandlerEntries(path: String) = findEntries(WsHandlerType.WEBSOCKET_BEFORE, path)
 
     /** Returns the first endpoint handler that match the given [path], or `null`. */
-    fun findEndpointHandlerEntry(path: String) = findEntries(WsHandlerType.WEBSOCKET, path).firstOrNull()
+    fun findEndpointHandlerEntry(path: String) = routeIndexes[WsHandlerType.WEBSOCKET]!!.findFirst(path) { it.takeIf { matches(it, path) } }
 
     /** Returns all the after handlers that match the given [path]. */
     fun findAfterHandlerEntries(path: String) = findEntries(WsHandlerType.WEBSOCKET_AFTER, path)
 
+    /** Returns the before, endpoint and after handlers that match the given [path]. */
+    fun findRoutePlan(path: String): WsRoutePlan {
+        val cache = routePlanCache ?: return resolveRoutePlan(path)
+        cache.get(path)?.let { return it }
+        val version = routesVersion.get()
+        val plan = resolveRoutePlan(path)
+        if (plan.endpoint != null) { // don't let unknown paths compete with real routes for a place in the cache
+            cache.put(path, plan) { version == routesVersion.get() } // skip plans resolved while routes were added
+        }
+        return plan
+    }
+
+    private fun resolveRoutePlan(path: String) = WsRoutePlan(
+        before = findBeforeHandlerEntries(path),
+        endpoint = findEndpointHandlerEntry(path),
+        after = findAfterHandlerEntries(path),
+    )
+
     /** Returns all the handlers of type [handlerType] that match the given [path]. */
-    private fun findEntries(handlerType: WsHandlerType, path: String) =
-        wsHandlerEntries[handlerType]!!.filter { entry -> entry.path == "*" || entry.matches(path) }
+    private fun findEntries(handlerType: WsHandlerType, path: String): List<WsHandlerEntry> =
+        routeIndexes[handlerType]!!.findAll(path) { it.takeIf { matches(it, path) } }
+
+    private fun matches(entry: WsHandlerEntry, path: String) = entry.path == "*" || entry.matches(path)
 }
@@ -7,7 +7,7 @@ import java.util.function.Consumer
 class WsRouter(private val routerConfig: RouterConfig) {
 
     val wsExceptionMapper = WsExceptionMapper()
-    val wsPathMatcher = WsPathMatcher()
+    val wsPathMatcher = WsPathMatcher(routerConfig)
 
     /** Add a WebSocket handler. */
     fun addHandler(handlerType: WsHandlerType, path: String, ws: Consumer<WsConfig>, roles: Set<RouteRole>) {
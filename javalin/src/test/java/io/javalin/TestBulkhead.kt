@@ -0,0 +1,91 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin
+
+import io.javalin.http.Bulkhead
+import io.javalin.http.Handler
+import io.javalin.http.HandlerType.GET
+import io.javalin.http.HttpStatus.SERVICE_UNAVAILABLE
+import io.javalin.router.Endpoint
+import io.javalin.router.EndpointMetadata
+import io.javalin.testing.TestUtil
+import io.javalin.testing.httpCode
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit.SECONDS
+
+class TestBulkhead {
+
+    private fun Javalin.getWith(path: String, vararg metadata: EndpointMetadata, handler: Handler) =
+        unsafe.routes.addEndpoint(Endpoint.create(GET, path).apply { metadata.forEach { addMetadata(it) } }.handler(handler))
+
+    private fun awaitUntil(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 5_000
+        while (!condition()) {
+            check(System.currentTimeMillis() < deadline) { "Condition not met in time" }
+            Thread.sleep(5)
+        }
+    }
+
+    @Test
+    fun `handlers run on the executor of the bulkhead`() = TestUtil.test { app, http ->
+        val bulkhead = Bulkhead("reports", maxConcurrent = 2, queueSize = 0)
+        app.getWith("/report", bulkhead) { it.result(Thread.currentThread().name) }
+        app.getWith("/error", bulkhead) { throw IllegalStateException() }
+        app.unsafe.routes.after("/report") { it.header("X-After", "true") }
+        val response = http.get("/report")
+        assertThat(response.body).startsWith("JavalinBulkhead-reports")
+        assertThat(response.headers.getFirst("X-After")).isEqualTo("true")
+        assertThat(http.get("/error").status).isEqualTo(500)
+        awaitUntil { bulkhead.active == 0 } // released just after the response is completed
+        assertThat(bulkhead.started).isEqualTo(2)
+    }
+
+    @Test
+    fun `requests are rejected once the queue is full`() = TestUtil.test { app, http ->
+        val bulkhead = Bulkhead("slow", maxConcurrent = 1, queueSize = 1)
+        val release = CountDownLatch(1)
+        app.getWith("/slow", bulkhead) { release.await(5, SECONDS); it.result("done") }
+        app.unsafe.routes.get("/health") { it.result("ok") }
+        val running = CompletableFuture.supplyAsync { http.getBody("/slow") }
+        awaitUntil { bulkhead.active == 1 }
+        val queued = CompletableFuture.supplyAsync { http.getBody("/slow") }
+        awaitUntil { bulkhead.queueDepth == 1 }
+        val rejected = http.get("/slow")
+        assertThat(rejected.httpCode()).isEqualTo(SERVICE_UNAVAILABLE)
+        assertThat(rejected.body).isEqualTo("Bulkhead slow is full")
+        assertThat(http.getBody("/health")).isEqualTo("ok") // not affected by the bulkhead
+        release.countDown()
+        assertThat(running.get(5, SECONDS)).isEqualTo("done")
+        assertThat(queued.get(5, SECONDS)).isEqualTo("done")
+        assertThat(bulkhead.rejected).isEqualTo(1)
+        assertThat(bulkhead.queueDepth).isEqualTo(0)
+    }
+
+    @Test
+    fun `queued requests with a higher priority start first`() = TestUtil.test { app, http ->
+        val bulkhead = Bulkhead("shared", maxConcurrent = 1, queueSize = 2)
+        val release = CountDownLatch(1)
+        val order = ConcurrentLinkedQueue<String>()
+        app.getWith("/block", bulkhead) { release.await(5, SECONDS) }
+        app.getWith("/low", bulkhead) { order.add("low") }
+        app.getWith("/critical", bulkhead, Bulkhead.Priority(10)) { order.add("critical") }
+        val requests = mutableListOf(CompletableFuture.supplyAsync { http.get("/block") })
+        awaitUntil { bulkhead.active == 1 }
+        requests.add(CompletableFuture.supplyAsync { http.get("/low") })
+        awaitUntil { bulkhead.queueDepth == 1 }
+        requests.add(CompletableFuture.supplyAsync { http.get("/critical") })
+        awaitUntil { bulkhead.queueDepth == 2 }
+        release.countDown()
+        requests.forEach { it.get(5, SECONDS) }
+        assertThat(order).containsExactly("critical", "low")
+    }
+
+}
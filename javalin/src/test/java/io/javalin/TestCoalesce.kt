@@ -0,0 +1,128 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin
+
+import io.javalin.http.Coalesce
+import io.javalin.http.Handler
+import io.javalin.http.HandlerType.GET
+import io.javalin.http.HttpStatus.CREATED
+import io.javalin.router.Endpoint
+import io.javalin.testing.TestUtil
+import io.javalin.testing.httpCode
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.concurrent.atomic.AtomicInteger
+
+class TestCoalesce {
+
+    private fun Javalin.getCoalesced(path: String, coalesce: Coalesce, handler: Handler) =
+        unsafe.routes.addEndpoint(Endpoint.create(GET, path).addMetadata(coalesce).handler(handler))
+
+    private fun awaitUntil(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 5_000
+        while (!condition()) {
+            check(System.currentTimeMillis() < deadline) { "Condition not met in time" }
+            Thread.sleep(5)
+        }
+    }
+
+    @Test
+    fun `identical concurrent requests share one handler execution`() = TestUtil.test { app, http ->
+        val coalesce = Coalesce(Duration.ofSeconds(5))
+        val calls = AtomicInteger()
+        val release = CountDownLatch(1)
+        app.getCoalesced("/expensive", coalesce) { ctx ->
+            calls.incrementAndGet()
+            release.await(5, SECONDS)
+            ctx.status(CREATED).header("X-Computed", "true").cookie("session", "leader").result("result ${ctx.queryParam("q")}")
+        }
+        val leader = CompletableFuture.supplyAsync { http.get("/expensive?q=1") }
+        awaitUntil { coalesce.inFlight == 1 }
+        val followers = List(3) { CompletableFuture.supplyAsync { http.get("/expensive?q=1") } }
+        awaitUntil { coalesce.waiting == 3 }
+        release.countDown()
+        assertThat(http.getBody("/expensive?q=2")).isEqualTo("result 2") // different key, runs its own handler
+        (followers + leader).map { it.get(5, SECONDS) }.forEach {
+            assertThat(it.httpCode()).isEqualTo(CREATED)
+            assertThat(it.body).isEqualTo("result 1")
+            assertThat(it.headers.getFirst("X-Computed")).isEqualTo("true")
+        }
+        assertThat(followers.map { it.get().headers.get("Set-Cookie") }).allMatch { it.isEmpty() }
+        assertThat(calls.get()).isEqualTo(2)
+        assertThat(coalesce.coalesced).isEqualTo(3)
+    }
+
+    @Test
+    fun `waiting requests run the handler themselves if the leader fails`() = TestUtil.test { app, http ->
+        val coalesce = Coalesce(Duration.ofSeconds(5))
+        val calls = AtomicInteger()
+        val release = CountDownLatch(1)
+        app.getCoalesced("/flaky", coalesce) { ctx ->
+            if (calls.incrementAndGet() == 1) {
+                release.await(5, SECONDS)
+                throw IllegalStateException()
+            }
+            ctx.result("recovered")
+        }
+        val leader = CompletableFuture.supplyAsync { http.get("/flaky") }
+        awaitUntil { coalesce.inFlight == 1 }
+        val follower = CompletableFuture.supplyAsync { http.get("/flaky") }
+        awaitUntil { coalesce.waiting == 1 }
+        release.countDown()
+        assertThat(leader.get(5, SECONDS).status).isEqualTo(500)
+        assertThat(follower.get(5, SECONDS).body).isEqualTo("recovered")
+        assertThat(coalesce.coalesced).isEqualTo(0)
+    }
+
+    @Test
+    fun `waiting requests run the handler themselves after the max wait`() = TestUtil.test { app, http ->
+        val coalesce = Coalesce(Duration.ofMillis(50))
+        val calls = AtomicInteger()
+        val release = CountDownLatch(1)
+        app.getCoalesced("/slow", coalesce) { ctx ->
+            when (calls.incrementAndGet()) {
+                1 -> release.await(5, SECONDS).also { ctx.result("leader") }
+                else -> ctx.result("independent")
+            }
+        }
+        val leader = CompletableFuture.supplyAsync { http.get("/slow") }
+        awaitUntil { coalesce.inFlight == 1 }
+        assertThat(http.getBody("/slow")).isEqualTo("independent")
+        release.countDown()
+        assertThat(leader.get(5, SECONDS).body).isEqualTo("leader")
+    }
+
+    @Test
+    fun `headers of the waiting requests are kept and only the headers of the handler are replayed`() = TestUtil.test { app, http ->
+        val coalesce = Coalesce(Duration.ofSeconds(5))
+        val requestIds = AtomicInteger()
+        val release = CountDownLatch(1)
+        app.unsafe.routes.before("/shared") { it.header("X-Request-Id", "${requestIds.incrementAndGet()}") }
+        app.getCoalesced("/shared", coalesce) { ctx ->
+            release.await(5, SECONDS)
+            ctx.header("X-Request-Id", "from-handler").header("X-Computed", "true").json(mapOf("shared" to true))
+        }
+        val leader = CompletableFuture.supplyAsync { http.get("/shared") }
+        awaitUntil { coalesce.inFlight == 1 }
+        val followers = List(2) { CompletableFuture.supplyAsync { http.get("/shared") } }
+        awaitUntil { coalesce.waiting == 2 }
+        release.countDown()
+        val responses = followers.map { it.get(5, SECONDS) }
+        assertThat(leader.get(5, SECONDS).headers.getFirst("X-Request-Id")).isEqualTo("from-handler")
+        responses.forEach {
+            assertThat(it.headers.getFirst("X-Computed")).isEqualTo("true")
+            assertThat(it.headers.getFirst("Content-Type")).startsWith("application/json") // replaces the default content type
+            assertThat(it.headers.get("X-Request-Id")).hasSize(1)
+        }
+        assertThat(responses.map { it.headers.getFirst("X-Request-Id") }).containsExactlyInAnyOrder("2", "3")
+    }
+
+}
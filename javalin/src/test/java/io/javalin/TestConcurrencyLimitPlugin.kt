@@ -0,0 +1,90 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin
+
+import io.javalin.http.Header
+import io.javalin.http.HttpStatus.OK
+import io.javalin.http.HttpStatus.SERVICE_UNAVAILABLE
+import io.javalin.plugin.bundled.ConcurrencyLimitPlugin
+import io.javalin.testing.TestUtil
+import io.javalin.testing.httpCode
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.TimeUnit.SECONDS
+
+class TestConcurrencyLimitPlugin {
+
+    @Test
+    fun `requests over the limit are rejected before any handler runs`() {
+        val plugin = ConcurrencyLimitPlugin { it.initialLimit = 1; it.maxLimit = 1; it.retryAfterSeconds = 5 }
+        val started = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        var beforeCalls = 0
+        val app = Javalin.create { config ->
+            config.registerPlugin(plugin)
+            config.routes.before("/slow") { beforeCalls++ }
+            config.routes.get("/slow") { started.countDown(); release.await(5, SECONDS); it.result("done") }
+        }
+        TestUtil.test(app) { _, http ->
+            val first = CompletableFuture.supplyAsync { http.get("/slow") }
+            assertThat(started.await(5, SECONDS)).isTrue()
+            assertThat(plugin.inFlight).isEqualTo(1)
+            val rejected = http.get("/slow")
+            assertThat(rejected.httpCode()).isEqualTo(SERVICE_UNAVAILABLE)
+            assertThat(rejected.headers.getFirst(Header.RETRY_AFTER)).isEqualTo("5")
+            assertThat(plugin.rejected).isEqualTo(1)
+            assertThat(beforeCalls).isEqualTo(1)
+            release.countDown()
+            assertThat(first.get(5, SECONDS).body).isEqualTo("done")
+        }
+    }
+
+    @Test
+    fun `in-flight count is released when requests complete`() {
+        val plugin = ConcurrencyLimitPlugin { it.initialLimit = 2; it.maxLimit = 2 } // the count may be released just after the client got the response
+        val app = Javalin.create { config ->
+            config.registerPlugin(plugin)
+            config.routes.get("/sync") { it.result("sync") }
+            config.routes.get("/async") { ctx -> ctx.future { CompletableFuture.supplyAsync { "async" }.thenAccept { ctx.result(it) } } }
+            config.routes.get("/error") { throw IllegalStateException() }
+        }
+        TestUtil.test(app) { _, http ->
+            repeat(3) {
+                assertThat(http.getStatus("/sync")).isEqualTo(OK)
+                assertThat(http.getBody("/async")).isEqualTo("async")
+                http.get("/error")
+            }
+            assertThat(plugin.rejected).isEqualTo(0)
+            assertThat(plugin.limit).isBetween(1, 2)
+        }
+    }
+
+    @Test
+    fun `limit shrinks when latency rises and grows again when it recovers`() {
+        val plugin = ConcurrencyLimitPlugin { it.initialLimit = 20; it.maxLimit = 100 }
+        fun samples(rttMillis: Long, count: Int) = repeat(count) { plugin.onSample(MILLISECONDS.toNanos(rttMillis), plugin.limit) }
+        samples(rttMillis = 10, count = 30)
+        val steady = plugin.limit
+        assertThat(steady).isGreaterThan(20)
+        samples(rttMillis = 100, count = 10) // requests are queueing
+        val overloaded = plugin.limit
+        assertThat(overloaded).isLessThan(steady)
+        samples(rttMillis = 10, count = 10)
+        assertThat(plugin.limit).isGreaterThan(overloaded)
+    }
+
+    @Test
+    fun `limit stays put while there is not enough load to measure`() {
+        val plugin = ConcurrencyLimitPlugin { it.initialLimit = 20 }
+        repeat(10) { plugin.onSample(MILLISECONDS.toNanos(if (it % 2 == 0) 10 else 100), 5) }
+        assertThat(plugin.limit).isEqualTo(20)
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin
+
+import io.javalin.http.Deadline
+import io.javalin.http.Handler
+import io.javalin.http.HandlerType.GET
+import io.javalin.http.HttpStatus
+import io.javalin.http.SuspendHandler
+import io.javalin.router.Endpoint
+import io.javalin.testing.TestUtil
+import io.javalin.testing.httpCode
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.delay
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit.SECONDS
+
+class TestDeadline {
+
+    private fun Javalin.getWithDeadline(path: String, millis: Long, handler: Handler) =
+        unsafe.routes.addEndpoint(Endpoint.create(GET, path).addMetadata(Deadline(Duration.ofMillis(millis))).handler(handler))
+
+    @Test
+    fun `deadline is only available for endpoints with a deadline`() = TestUtil.test { app, http ->
+        app.unsafe.routes.get("/none") { it.result("${it.deadline()} ${it.remainingTime()}") }
+        app.getWithDeadline("/deadline", 10_000) { ctx ->
+            val remaining = ctx.remainingTime()!!
+            ctx.result("${remaining > Duration.ZERO && remaining <= Duration.ofSeconds(10)} ${ctx.deadline() != null}")
+        }
+        assertThat(http.getBody("/none")).isEqualTo("null null")
+        assertThat(http.getBody("/deadline")).isEqualTo("true true")
+    }
+
+    @Test
+    fun `http-handler is skipped when a slow before-handler exceeds the deadline`() = TestUtil.test { app, http ->
+        app.unsafe.routes.before("/slow") { Thread.sleep(100) }
+        app.unsafe.routes.beforeMatched("/slow") { it.header("X-Before-Matched", "true") }
+        app.getWithDeadline("/slow", 50) { it.result("not reached") }
+        app.unsafe.routes.after("/slow") { it.header("X-After", "true") }
+        val response = http.get("/slow")
+        assertThat(response.httpCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+        assertThat(response.body).isEqualTo("Deadline exceeded")
+        assertThat(response.headers.getFirst("X-Before-Matched")).isEqualTo("true") // only the http-handler is skipped
+        assertThat(response.headers.getFirst("X-After")).isEqualTo("true")
+    }
+
+    @Test
+    fun `request stops waiting for a pending future once the deadline has passed`() = TestUtil.test { app, http ->
+        val pending = CompletableFuture<Void>()
+        app.getWithDeadline("/future", 50) { it.future { pending } }
+        assertThat(http.get("/future").let { it.httpCode() to it.body }).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE to "Deadline exceeded")
+        assertThat(pending).isNotDone() // the caller's future is left as it is
+    }
+
+    @Test
+    fun `async task is interrupted once the deadline has passed`() = TestUtil.test { app, http ->
+        val interrupted = CompletableFuture<Boolean>()
+        app.getWithDeadline("/async", 500) { ctx -> // long enough for the task to start
+            ctx.async {
+                try {
+                    Thread.sleep(5_000)
+                } catch (e: InterruptedException) {
+                    interrupted.complete(true)
+                }
+            }
+        }
+        assertThat(http.getStatus("/async")).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+        assertThat(interrupted.get(1, SECONDS)).isTrue()
+    }
+
+    @Test
+    fun `suspend handler is cancelled once the deadline has passed`() = TestUtil.test { app, http ->
+        val cancelled = CompletableFuture<Boolean>()
+        app.getWithDeadline("/suspend", 50, SuspendHandler {
+            try {
+                delay(5_000)
+            } catch (e: CancellationException) {
+                cancelled.complete(true)
+                throw e
+            }
+        })
+        assertThat(http.getStatus("/suspend")).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+        assertThat(cancelled.get(1, SECONDS)).isTrue()
+    }
+
+}
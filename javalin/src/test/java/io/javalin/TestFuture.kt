@@ -64,6 +64,18 @@ internal class TestFuture {
             assertThat(http.getBody("/")).isEqualTo(app.unsafe.http.asyncTimeout.toString())
         }
 
+        @Test
+        fun `completed futures continue without async mode`() = TestUtil.test { app, http ->
+            app.unsafe.routes.get("/completed") { ctx -> ctx.future { completedFuture("Completed").thenApply { ctx.result(it) } } }
+            app.unsafe.routes.get("/failed") { ctx -> ctx.future { CompletableFuture.failedFuture<String>(IllegalStateException("Failed")) } }
+            app.unsafe.routes.get("/pending") { ctx -> ctx.future { getFuture("Pending").thenApply { ctx.result(it) } } }
+            app.unsafe.routes.exception(IllegalStateException::class.java) { e, ctx -> ctx.result(e.message!!) }
+            app.unsafe.routes.after { it.header("X-Async", it.req().isAsyncStarted.toString()) }
+            assertThat(http.get("/completed").let { it.body to it.headers.getFirst("X-Async") }).isEqualTo("Completed" to "false")
+            assertThat(http.get("/failed").let { it.body to it.headers.getFirst("X-Async") }).isEqualTo("Failed" to "false")
+            assertThat(http.get("/pending").let { it.body to it.headers.getFirst("X-Async") }).isEqualTo("Pending" to "true")
+        }
+
         @Test
         fun `context can be used in thenAccept and exceptionally`() = TestUtil.test { app, http ->
             app.unsafe.routes.get("/") { ctx ->
@@ -112,6 +112,23 @@ class TestMethodNotAllowed {
         }
     }
 
+    @Test
+    fun `Allow header combines the methods of all routes matching the path`() {
+        val app = Javalin.create { config ->
+            config.http.prefer405over404 = true
+            config.routes.get("/users/{id}") { it.result("GET response") }
+            config.routes.delete("/users/me") { it.result("DELETE response") }
+            config.routes.patch("/users/*") { it.result("PATCH response") }
+            config.routes.put("/other/{id}") { it.result("PUT response") }
+        }
+        TestUtil.test(app) { _, http ->
+            assertThat(http.call(HttpMethod.POST, "/users/me").allowHeader).isEqualTo("GET, PATCH, DELETE")
+            assertThat(http.call(HttpMethod.POST, "/users/1").allowHeader).isEqualTo("GET, PATCH")
+            assertThat(http.call(HttpMethod.POST, "/users/1/posts").allowHeader).isEqualTo("PATCH")
+            assertThat(http.call(HttpMethod.POST, "/unknown").status).isEqualTo(404)
+        }
+    }
+
     @Test
     fun `Allow header is not set for 404 responses`() = TestUtil.test { app, http ->
         app.unsafe.routes.get("/test") { it.result("Hello") }
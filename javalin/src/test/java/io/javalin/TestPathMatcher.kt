@@ -0,0 +1,149 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin
+
+import io.javalin.config.RouterConfig
+import io.javalin.http.HandlerType
+import io.javalin.http.HandlerType.BEFORE
+import io.javalin.http.HandlerType.GET
+import io.javalin.router.Endpoint
+import io.javalin.router.ParsedEndpoint
+import io.javalin.router.matcher.PathMatcher
+import io.javalin.websocket.WsConfig
+import io.javalin.websocket.WsHandlerEntry
+import io.javalin.websocket.WsHandlerType
+import io.javalin.websocket.WsPathMatcher
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class TestPathMatcher {
+
+    private fun matcher(vararg paths: String, type: HandlerType = GET, config: RouterConfig.() -> Unit = {}): PathMatcher {
+        val routerConfig = RouterConfig().apply(config)
+        return PathMatcher(routerConfig).also { matcher ->
+            paths.forEach { matcher.add(ParsedEndpoint(Endpoint(type, it, {}), routerConfig)) }
+        }
+    }
+
+    private fun PathMatcher.first(requestUri: String, type: HandlerType = GET) =
+        findFirstEntry(type, requestUri)?.endpoint?.path
+
+    private fun PathMatcher.all(requestUri: String, type: HandlerType = GET) =
+        findEntries(type, requestUri).map { it.endpoint.path }
+
+    @Test
+    fun `registration order decides precedence between static and param routes`() {
+        assertThat(matcher("/users/{id}", "/users/me").first("/users/me")).isEqualTo("/users/{id}")
+        assertThat(matcher("/users/me", "/users/{id}").first("/users/me")).isEqualTo("/users/me")
+        assertThat(matcher("/*", "/users/me").first("/users/me")).isEqualTo("/*")
+        assertThat(matcher("/users/<rest>", "/users/{id}").first("/users/1")).isEqualTo("/users/<rest>")
+    }
+
+    @Test
+    fun `all matching entries are returned in registration order`() {
+        val matcher = matcher("/a/*", "*", "/a/{b}/c", "/a/b/c", "/x", "/a/<rest>", "/a/b*", type = BEFORE)
+        assertThat(matcher.all("/a/b/c", BEFORE)).containsExactly("/a/*", "*", "/a/{b}/c", "/a/b/c", "/a/<rest>", "/a/b*")
+        assertThat(matcher.all("/a/bcd", BEFORE)).containsExactly("/a/*", "*", "/a/<rest>", "/a/b*")
+        assertThat(matcher.all("/y", BEFORE)).containsExactly("*")
+    }
+
+    @Test
+    fun `static paths keep the precedence of earlier routes`() {
+        val matcher = matcher("/{name}", "/hello", "/world/wide/", "/static")
+        matcher.add(ParsedEndpoint(Endpoint(GET, "/*", {}), RouterConfig()))
+        assertThat(matcher.first("/hello")).isEqualTo("/{name}")
+        assertThat(matcher.first("/world/wide")).isEqualTo("/world/wide/")
+        assertThat(matcher.first("/world/wide/")).isEqualTo("/world/wide/")
+        assertThat(matcher.first("/static/")).isEqualTo("/{name}")
+        assertThat(matcher.first("/other/path")).isEqualTo("/*")
+    }
+
+    @Test
+    fun `static paths are found ignoring case when routes are case insensitive`() {
+        val matcher = matcher("/Static/Path") { caseInsensitiveRoutes = true }
+        assertThat(matcher.first("/static/path")).isEqualTo("/Static/Path")
+        assertThat(matcher.first("/STATIC/PATH/")).isEqualTo("/Static/Path")
+        assertThat(matcher.first("/static/other")).isNull()
+    }
+
+    @Test
+    fun `the last of many routes is found`() {
+        val matcher = matcher(*(0 until 3_000).map { "/route$it/{id}" }.toTypedArray())
+        assertThat(matcher.first("/route2999/1")).isEqualTo("/route2999/{id}")
+        assertThat(matcher.first("/route3000/1")).isNull()
+    }
+
+    @Test
+    fun `mixed segments and sub path params are matched`() {
+        val matcher = matcher("/files/{name}.json", "/hi-{name}/x", "/sub/{id}*")
+        assertThat(matcher.first("/files/a.json")).isEqualTo("/files/{name}.json")
+        assertThat(matcher.first("/files/a.xml")).isNull()
+        assertThat(matcher.first("/hi-there/x")).isEqualTo("/hi-{name}/x")
+        assertThat(matcher.first("/sub/1")).isEqualTo("/sub/{id}*")
+        assertThat(matcher.first("/sub/1/2/3")).isEqualTo("/sub/{id}*")
+        assertThat(matcher.first("/sub")).isNull()
+    }
+
+    @Test
+    fun `trailing slashes follow the router config`() {
+        val ignoring = matcher("/", "/a", "/b/")
+        assertThat(ignoring.first("/")).isEqualTo("/")
+        assertThat(ignoring.first("/a/")).isEqualTo("/a")
+        assertThat(ignoring.first("/b")).isEqualTo("/b/")
+        val strict = matcher("/a", "/b/") { ignoreTrailingSlashes = false }
+        assertThat(strict.first("/a")).isEqualTo("/a")
+        assertThat(strict.first("/a/")).isNull()
+        assertThat(strict.first("/b")).isNull()
+        assertThat(strict.first("/b/")).isEqualTo("/b/")
+    }
+
+    @Test
+    fun `multiple slashes follow the router config`() {
+        assertThat(matcher("/a/{id}").first("//a//1//")).isNull()
+        assertThat(matcher("/a/{id}") { treatMultipleSlashesAsSingleSlash = true }.first("//a//1//")).isEqualTo("/a/{id}")
+    }
+
+    @Test
+    fun `case insensitive routes follow the router config`() {
+        assertThat(matcher("/Hello/{id}").first("/hELLO/1")).isNull()
+        assertThat(matcher("/Hello/{id}") { caseInsensitiveRoutes = true }.first("/hELLO/1")).isEqualTo("/Hello/{id}")
+        assertThat(matcher("/kelvin") { caseInsensitiveRoutes = true }.first("/\u212Aelvin")).isEqualTo("/kelvin") // Kelvin sign
+    }
+
+    @Test
+    fun `matches carry the path params of the matched path`() {
+        val matcher = matcher("/users/{id}", "/users/<rest>", "/static", "/{name}.json", type = BEFORE)
+        val matches = matcher.findMatches(BEFORE, "/users/a%20b")
+        assertThat(matches.map { it.entry.endpoint.path }).containsExactly("/users/{id}", "/users/<rest>")
+        assertThat(matches.map { it.pathParams() }).containsExactly(mapOf("id" to "a b"), mapOf("rest" to "a b"))
+        assertThat(matcher.findFirstMatch(BEFORE, "/static")!!.hasPathParams()).isFalse()
+        assertThat(matcher.findFirstMatch(BEFORE, "/file.json")!!.pathParams()).isEqualTo(mapOf("name" to "file"))
+        assertThat(matcher.findFirstMatch(BEFORE, "/other")).isNull()
+    }
+
+    @Test
+    fun `websocket route plans contain the matching handlers in registration order`() {
+        val routerConfig = RouterConfig().apply { routeCacheSize = 10 }
+        val matcher = WsPathMatcher(routerConfig)
+        fun add(type: WsHandlerType, path: String) = matcher.add(WsHandlerEntry(type, path, routerConfig, WsConfig(), emptySet()))
+        add(WsHandlerType.WEBSOCKET_BEFORE, "*")
+        add(WsHandlerType.WEBSOCKET_BEFORE, "/chat/{room}")
+        add(WsHandlerType.WEBSOCKET_BEFORE, "/other")
+        add(WsHandlerType.WEBSOCKET, "/chat/{room}")
+        add(WsHandlerType.WEBSOCKET, "/chat/*")
+        add(WsHandlerType.WEBSOCKET_AFTER, "/chat/*")
+        val plan = matcher.findRoutePlan("/chat/lobby")
+        assertThat(plan.before.map { it.path }).containsExactly("*", "/chat/{room}")
+        assertThat(plan.endpoint?.path).isEqualTo("/chat/{room}")
+        assertThat(plan.after.map { it.path }).containsExactly("/chat/*")
+        assertThat(matcher.findRoutePlan("/chat/lobby")).isSameAs(plan)
+        assertThat(matcher.findRoutePlan("/unknown").endpoint).isNull()
+        add(WsHandlerType.WEBSOCKET_AFTER, "/chat/{room}")
+        assertThat(matcher.findRoutePlan("/chat/lobby").after.map { it.path }).containsExactly("/chat/*", "/chat/{room}")
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin
+
+import io.javalin.config.RouterConfig
+import io.javalin.http.servlet.urlDecode
+import io.javalin.router.matcher.PathParser
+import io.javalin.router.matcher.constructRegexList
+import io.javalin.router.matcher.values
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class TestPathParser {
+
+    private val paths = listOf(
+        "/", "/hello", "/hello/", "/Hello/World", "/users/{id}", "/users/{id}/", "/users/{id}/posts/{postId}",
+        "/files/<path>", "/files/<path>/", "/<all>", "*", "/*", "/a/*", "/a/*/", "/a/{id}*", "/a/<p>*",
+        "/{name}.json", "/a/*/b", "/a/<p>/b", "/x{y}z", "/users/{id:int}", "/{id:long}.json", "/a/{id:uuid}*",
+    )
+
+    private val requests = listOf(
+        "", "/", "//", "/hello", "/hello/", "/hello//", "//hello", "/HELLO", "/hello/world", "/users/1", "/users/1/",
+        "/users//1", "/users/1//", "/Users/1", "/users/1/posts/2", "/users/1/posts/2/", "/files", "/files/", "/files//",
+        "/files/a", "/files/a/b", "/files/a/b/", "/files/a/b//", "/a", "/a/", "/a//", "/a/1", "/a/1/", "/a/1/2",
+        "/a/1/2/", "/a/b", "/a/x/b", "/x.json", "/xyz", "/xz", "/a/%20b", "/a/1+2",
+        "/users/-1", "/123.json", "/a/123e4567-e89b-12d3-a456-426614174000", "/a/123E4567-E89B-12D3-A456-426614174000/x",
+        "/X.JSON", "/XyZ", "/A/x/B", "/A/1/B/", "/\u212A.json",
+        "/users/%31", "/users/%2D1", "/users/%2d%31", "/%31%32.json", "/a/123e4567-e89b-12d3-a456-42661417400%30",
+    )
+
+    private val configs = listOf(false, true).flatMap { trailing ->
+        listOf(false, true).flatMap { multiple ->
+            listOf(false, true).map { caseInsensitive ->
+                RouterConfig().apply {
+                    ignoreTrailingSlashes = trailing
+                    treatMultipleSlashesAsSingleSlash = multiple
+                    caseInsensitiveRoutes = caseInsensitive
+                }
+            }
+        }
+    }
+
+    @Test
+    fun `path parser matches and extracts exactly like the path regex`() {
+        for (config in configs) {
+            for (path in paths) {
+                val parser = PathParser(path, config)
+                val regexOptions = if (config.caseInsensitiveRoutes) setOf(RegexOption.IGNORE_CASE) else emptySet()
+                val matchRegex = constructRegexList(config, parser.matchPathAndEverySubPath, parser.segments, parser.regexSuffix, regexOptions) { it.asRegexString() }
+                val groupRegex = constructRegexList(config, parser.matchPathAndEverySubPath, parser.segments, parser.regexSuffix, regexOptions) { it.asGroupedRegexString() }
+                for (request in requests) {
+                    val description = "path='$path', request='$request', trailing=${config.ignoreTrailingSlashes}, " +
+                        "multiple=${config.treatMultipleSlashesAsSingleSlash}, caseInsensitive=${config.caseInsensitiveRoutes}"
+                    val index = matchRegex.indexOfFirst { request matches it }
+                    assertThat(parser.matches(request)).describedAs(description).isEqualTo(index != -1)
+                    if (index != -1) {
+                        val expected = parser.pathParamNames.zip(values(groupRegex[index], request).map { urlDecode(it) }).toMap()
+                        assertThat(parser.extractPathParams(request)).describedAs(description).isEqualTo(expected)
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    fun `extracted path params behave like a regular map`() {
+        val pathParams = PathParser("/{a}/{b}/{c}", RouterConfig()).extractPathParams("/1/x%20y/3")
+        assertThat(pathParams).isEqualTo(mapOf("a" to "1", "b" to "x y", "c" to "3"))
+        assertThat(pathParams["b"]).isEqualTo("x y")
+        assertThat(pathParams["d"]).isNull()
+        assertThat(pathParams.keys).containsExactly("a", "b", "c")
+        assertThat(pathParams.toString()).isEqualTo("{a=1, b=x y, c=3}")
+        assertThat(pathParams.hashCode()).isEqualTo(mapOf("a" to "1", "b" to "x y", "c" to "3").hashCode())
+    }
+
+}
@@ -27,9 +27,19 @@ import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.io.TempDir
 import java.io.ByteArrayInputStream
 import java.io.File
+import java.net.URI
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse.BodyHandlers
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
 import java.util.*
+import java.util.concurrent.CompletableFuture
 import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.SubmissionPublisher
 import java.util.concurrent.TimeUnit
+import java.util.zip.GZIPInputStream
 
 class TestResponse {
 
@@ -100,6 +110,95 @@ class TestResponse {
             .isThrownBy { inputStream.read() }
     }
 
+    @Test
+    fun `setting a ByteBuffer result works`() = TestUtil.test { app, http ->
+        val bytes = ByteArray(65537).also { Random().nextBytes(it) }
+        val heapBuffer = ByteBuffer.wrap(bytes, 1, bytes.size - 1)
+        val directBuffer = ByteBuffer.allocateDirect(bytes.size).put(bytes).flip()
+        app.unsafe.routes.get("/heap") { it.result(heapBuffer) }
+        app.unsafe.routes.get("/direct") { it.result(directBuffer) }
+        app.unsafe.routes.get("/read") { it.result(ByteBuffer.wrap("Hello".toByteArray())).also { ctx -> ctx.header("X-Result", ctx.result()!!) } }
+        repeat(2) { // the buffers are not modified
+            assertThat(Unirest.get("${http.origin}/heap").asBytes().body).isEqualTo(bytes.copyOfRange(1, bytes.size))
+            assertThat(Unirest.get("${http.origin}/direct").asBytes().body).isEqualTo(bytes)
+        }
+        assertThat(http.get("/read").let { it.body to it.headers.getFirst("X-Result") }).isEqualTo("Hello" to "Hello")
+    }
+
+    @Test
+    fun `setting a file result works and the channel is closed`() = TestUtil.test { app, http ->
+        val file = File(workingDirectory, "my-file.bin").also { it.writeBytes(ByteArray(100_000).also { bytes -> Random().nextBytes(bytes) }) }
+        val channel = FileChannel.open(file.toPath())
+        app.unsafe.routes.get("/path") { it.result(file.toPath()) }
+        app.unsafe.routes.get("/channel") { it.result(channel) }
+        app.unsafe.routes.get("/missing") { it.result(File(workingDirectory, "missing").toPath()) }
+        app.unsafe.routes.get("/replaced") { it.result(File(workingDirectory, "missing").toPath()).result("Replaced") } // opened only when written
+        val response = Unirest.get("${http.origin}/path").header(Header.ACCEPT_ENCODING, "gzip").asBytes()
+        assertThat(response.body).isEqualTo(file.readBytes())
+        assertThat(Unirest.get("${http.origin}/channel").asBytes().body).isEqualTo(file.readBytes())
+        assertThat(channel.isOpen).isFalse()
+        assertThat(http.get("/missing").httpCode()).isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR)
+        assertThat(http.getBody("/replaced")).isEqualTo("Replaced")
+    }
+
+    @Test
+    fun `large results are written with non-blocking io`() {
+        val bytes = ByteArray(2_000_000).also { Random().nextBytes(it) }
+        val text = "Hello, World! ".repeat(100_000)
+        val loggedPaths = Collections.synchronizedList(mutableListOf<String>())
+        val app = Javalin.create { config ->
+            config.http.nonBlockingWriteThreshold = 1_000
+            config.requestLogger.http { ctx, _ -> loggedPaths.add(ctx.path()) }
+            config.routes.get("/bytes") { it.result(bytes) }
+            config.routes.get("/text") { it.result(text) }
+            config.routes.get("/future") { ctx -> ctx.future { CompletableFuture.supplyAsync { ctx.result(bytes) } } }
+            config.routes.get("/small") { it.result("small") }
+        }
+        TestUtil.test(app) { _, http ->
+            assertThat(Unirest.get("${http.origin}/bytes").asBytes().body).isEqualTo(bytes)
+            assertThat(Unirest.get("${http.origin}/text").header(Header.ACCEPT_ENCODING, "gzip").asString().body).isEqualTo(text) // compressed chunk by chunk
+            assertThat(Unirest.get("${http.origin}/future").asBytes().body).isEqualTo(bytes)
+            assertThat(http.getBody("/small")).isEqualTo("small")
+            assertThat(loggedPaths).containsExactlyInAnyOrder("/bytes", "/text", "/future", "/small")
+        }
+    }
+
+    /** Submits the items once the response has subscribed, since items submitted before that are dropped */
+    private fun publisherOf(items: List<String>, failure: Exception? = null): SubmissionPublisher<ByteBuffer> {
+        val publisher = SubmissionPublisher<ByteBuffer>(ForkJoinPool.commonPool(), 4) // a small buffer, submit() blocks until the items are written
+        Thread {
+            while (!publisher.hasSubscribers()) Thread.sleep(1)
+            items.forEach { publisher.submit(ByteBuffer.wrap(it.toByteArray())) }
+            if (failure != null) publisher.closeExceptionally(failure) else publisher.close()
+        }.start()
+        return publisher
+    }
+
+    @Test
+    fun `publisher results are streamed as the items arrive`() = TestUtil.test { app, http ->
+        val chunks = List(200) { "chunk $it ".repeat(500) }
+        app.unsafe.routes.get("/publisher") { it.result(publisherOf(chunks)) }
+        app.unsafe.routes.get("/small-first") { it.result(publisherOf(listOf("a") + chunks)) }
+        assertThat(http.getBody("/publisher")).isEqualTo(chunks.joinToString(""))
+        assertThat(Unirest.get("${http.origin}/publisher").header(Header.ACCEPT_ENCODING, "gzip").asString().body).isEqualTo(chunks.joinToString(""))
+        val smallFirst = HttpRequest.newBuilder(URI.create("${http.origin}/small-first")).header(Header.ACCEPT_ENCODING, "gzip").build()
+        val response = HttpClient.newHttpClient().send(smallFirst, BodyHandlers.ofInputStream())
+        assertThat(response.headers().firstValue(Header.CONTENT_ENCODING)).hasValue("gzip") // not decided by the size of the first item
+        assertThat(GZIPInputStream(response.body()).use { String(it.readBytes()) }).isEqualTo("a" + chunks.joinToString(""))
+    }
+
+    @Test
+    fun `publisher failing mid-stream aborts the response`() = TestUtil.test { app, http ->
+        val chunks = List(200) { List(4000) { ('a'..'z').random() }.joinToString("") } // more than the response buffer, even when compressed
+        app.unsafe.routes.get("/failing") { it.result(publisherOf(chunks, failure = IllegalStateException("Publisher failed"))) }
+        app.unsafe.routes.get("/failing-first") { it.result(publisherOf(listOf(), failure = IllegalStateException("Publisher failed"))) }
+        listOf("identity", "gzip").forEach { encoding ->
+            val request = HttpRequest.newBuilder(URI.create("${http.origin}/failing")).header(Header.ACCEPT_ENCODING, encoding).build()
+            assertThatIOException().isThrownBy { HttpClient.newHttpClient().send(request, BodyHandlers.ofString()) } // not a truncated body
+        }
+        assertThat(http.get("/failing-first").httpCode()).isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR)
+    }
+
     @Disabled("https://github.com/tipsy/javalin/pull/1413")
     @Test
     fun `gh-1409 entrypoint to analyze compression strategy lifecycle`() {
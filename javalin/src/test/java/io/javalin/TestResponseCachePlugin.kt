@@ -0,0 +1,153 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin
+
+import io.javalin.http.HandlerType.GET
+import io.javalin.http.Header
+import io.javalin.plugin.bundled.ResponseCache
+import io.javalin.plugin.bundled.ResponseCachePlugin
+import io.javalin.router.Endpoint
+import io.javalin.testing.TestUtil
+import kong.unirest.Unirest
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicInteger
+
+class TestResponseCachePlugin {
+
+    private val calls = AtomicInteger()
+
+    private fun cachingApp(plugin: ResponseCachePlugin, cache: ResponseCache) = Javalin.create { config ->
+        config.registerPlugin(plugin)
+        config.routes.addEndpoint(Endpoint.create(GET, "/products").addMetadata(cache).handler { ctx ->
+            ctx.header("X-Call", "${calls.incrementAndGet()}").result("products ${ctx.queryParam("page")} ${ctx.header("Accept-Language")}")
+        })
+        config.routes.get("/uncached") { it.result("${calls.incrementAndGet()}") }
+    }
+
+    @Test
+    fun `cached responses are served without running the handler`() {
+        val plugin = ResponseCachePlugin()
+        TestUtil.test(cachingApp(plugin, ResponseCache(Duration.ofMinutes(1)))) { _, http ->
+            val first = http.get("/products?page=1")
+            val second = http.get("/products?page=1")
+            assertThat(second.body).isEqualTo(first.body).isEqualTo("products 1 null")
+            assertThat(second.headers.getFirst("X-Call")).isEqualTo("1")
+            assertThat(second.headers.getFirst(Header.AGE)).isEqualTo("0")
+            assertThat(http.getBody("/products?page=2")).isEqualTo("products 2 null") // different query
+            assertThat(http.getBody("/uncached")).isEqualTo("3")
+            assertThat(http.getBody("/uncached")).isEqualTo("4")
+            assertThat(plugin.hits).isEqualTo(1)
+            assertThat(plugin.size).isEqualTo(2)
+            assertThat(plugin.bytes).isEqualTo(30)
+        }
+    }
+
+    @Test
+    fun `declared vary headers are part of the key`() {
+        TestUtil.test(cachingApp(ResponseCachePlugin(), ResponseCache(Duration.ofMinutes(1), vary = listOf("Accept-Language")))) { _, http ->
+            assertThat(http.getBody("/products", mapOf("Accept-Language" to "en"))).isEqualTo("products null en")
+            assertThat(http.getBody("/products", mapOf("Accept-Language" to "nb"))).isEqualTo("products null nb")
+            val cached = http.get("/products", mapOf("Accept-Language" to "en"))
+            assertThat(cached.body).isEqualTo("products null en")
+            assertThat(cached.headers.getFirst(Header.VARY)).isEqualTo("Accept-Language")
+            assertThat(calls.get()).isEqualTo(2)
+        }
+    }
+
+    @Test
+    fun `cached responses are removed by tag`() {
+        val plugin = ResponseCachePlugin()
+        TestUtil.test(cachingApp(plugin, ResponseCache(Duration.ofMinutes(1), tags = setOf("products")))) { _, http ->
+            http.get("/products")
+            plugin.invalidate("other")
+            assertThat(http.get("/products").headers.getFirst("X-Call")).isEqualTo("1")
+            plugin.invalidate("products")
+            assertThat(http.get("/products").headers.getFirst("X-Call")).isEqualTo("2")
+        }
+    }
+
+    @Test
+    fun `invalidating a tag only drops pending responses with that tag`() {
+        val plugin = ResponseCachePlugin()
+        val app = Javalin.create { config ->
+            config.registerPlugin(plugin)
+            config.routes.addEndpoint(Endpoint.create(GET, "/products").addMetadata(ResponseCache(Duration.ofMinutes(1), tags = setOf("products"))).handler { ctx ->
+                ctx.queryParam("invalidate")?.let { plugin.invalidate(it) } // while the response is being computed
+                ctx.result("${calls.incrementAndGet()}")
+            })
+        }
+        TestUtil.test(app) { _, http ->
+            assertThat(http.getBody("/products?invalidate=products")).isEqualTo("1")
+            assertThat(http.getBody("/products?invalidate=products")).isEqualTo("2") // not stored
+            assertThat(http.getBody("/products?invalidate=users")).isEqualTo("3")
+            assertThat(http.getBody("/products?invalidate=users")).isEqualTo("3") // stored
+        }
+    }
+
+    @Test
+    fun `cache hits still run the after-handlers`() {
+        val plugin = ResponseCachePlugin()
+        TestUtil.test(cachingApp(plugin, ResponseCache(Duration.ofMinutes(1)))) { app, http ->
+            app.unsafe.routes.afterMatched("/products") { it.header("X-After-Matched", "true") }
+            app.unsafe.routes.after { it.header("X-After", "true") }
+            http.get("/products")
+            val cached = http.get("/products")
+            assertThat(cached.headers.getFirst("X-Call")).isEqualTo("1")
+            assertThat(cached.headers.getFirst("X-After-Matched")).isEqualTo("true")
+            assertThat(cached.headers.getFirst("X-After")).isEqualTo("true")
+            assertThat(plugin.hits).isEqualTo(1)
+        }
+    }
+
+    @Test
+    fun `cache control of requests and responses is honored`() {
+        val plugin = ResponseCachePlugin()
+        TestUtil.test(cachingApp(plugin, ResponseCache(Duration.ofMinutes(1)))) { app, http ->
+            app.unsafe.routes.addEndpoint(Endpoint.create(GET, "/private").addMetadata(ResponseCache(Duration.ofMinutes(1))).handler {
+                it.header(Header.CACHE_CONTROL, "private, max-age=60").result("${calls.incrementAndGet()}")
+            })
+            http.get("/products")
+            val refreshed = Unirest.get(http.origin + "/products").header(Header.CACHE_CONTROL, "no-cache").asString()
+            assertThat(refreshed.headers.getFirst("X-Call")).isEqualTo("2")
+            assertThat(http.get("/products").headers.getFirst("X-Call")).isEqualTo("2") // replaced by the refreshed response
+            assertThat(http.getBody("/private")).isEqualTo("3")
+            assertThat(http.getBody("/private")).isEqualTo("4")
+        }
+    }
+
+    @Test
+    fun `expired responses are not served`() {
+        TestUtil.test(cachingApp(ResponseCachePlugin(), ResponseCache(Duration.ofMillis(20)))) { _, http ->
+            http.get("/products")
+            Thread.sleep(50)
+            assertThat(http.get("/products").headers.getFirst("X-Call")).isEqualTo("2")
+        }
+    }
+
+    @Test
+    fun `headers set before the handler are neither cached nor replaced by cache hits`() {
+        val requestIds = AtomicInteger()
+        val app = Javalin.create { config ->
+            config.registerPlugin(ResponseCachePlugin())
+            config.routes.before { ctx -> ctx.header("X-Request-Id", "${requestIds.incrementAndGet()}").header(Header.VARY, "Origin") }
+            config.routes.addEndpoint(Endpoint.create(GET, "/products").addMetadata(ResponseCache(Duration.ofMinutes(1), vary = listOf("Accept-Language"))).handler { ctx ->
+                ctx.header("X-Call", "${calls.incrementAndGet()}").json(listOf("product"))
+            })
+        }
+        TestUtil.test(app) { _, http ->
+            http.get("/products")
+            val cached = http.get("/products")
+            assertThat(cached.headers.getFirst("X-Call")).isEqualTo("1")
+            assertThat(cached.headers.getFirst(Header.CONTENT_TYPE)).startsWith("application/json")
+            assertThat(cached.headers.get("X-Request-Id")).containsExactly("2")
+            assertThat(cached.headers.getFirst(Header.VARY)).isEqualTo("Origin, Accept-Language")
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin
+
+import io.javalin.http.HandlerType
+import io.javalin.http.HttpStatus
+import io.javalin.http.servlet.ExecutionPlan
+import io.javalin.testing.TestUtil
+import io.javalin.util.TinyLfuCache
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class TestRouteCache {
+
+    private fun cachingApp() = Javalin.create { config ->
+        config.router.routeCacheSize = 100
+        config.routes.beforeMatched("/users/*") { it.header("X-Before", it.pathParamMap().toString()) }
+        config.routes.get("/users/{id}") { it.result("user " + it.pathParam("id")) }
+        config.routes.after { it.result(it.result() + "!") }
+    }
+
+    @Test
+    fun `cached routes are resolved with the path params of each request`() = TestUtil.test(cachingApp()) { app, http ->
+        assertThat(http.getBody("/users/1")).isEqualTo("user 1!")
+        assertThat(http.getBody("/users/2")).isEqualTo("user 2!")
+        assertThat(http.getBody("/users/1")).isEqualTo("user 1!")
+        assertThat(http.get("/users/1").headers.getFirst("X-Before")).isEqualTo("{id=1}")
+        assertThat(app.unsafe.internalRouter.routeCacheHitCount()).isEqualTo(2)
+        assertThat(app.unsafe.internalRouter.routeCacheMissCount()).isEqualTo(2)
+    }
+
+    @Test
+    fun `requests without an http handler are not cached`() = TestUtil.test(cachingApp()) { app, http ->
+        assertThat(http.getStatus("/unknown")).isEqualTo(HttpStatus.NOT_FOUND)
+        assertThat(http.getStatus("/unknown")).isEqualTo(HttpStatus.NOT_FOUND)
+        assertThat(app.unsafe.internalRouter.routeCacheHitCount()).isEqualTo(0)
+        assertThat(app.unsafe.internalRouter.routeCacheMissCount()).isEqualTo(2)
+    }
+
+    @Test
+    fun `routes added after requests were cached are found`() = TestUtil.test(cachingApp()) { app, http ->
+        assertThat(http.getBody("/users/me")).isEqualTo("user me!")
+        app.unsafe.routes.before("/users/me") { it.result("me") }
+        assertThat(http.getBody("/users/me")).isEqualTo("user me!")
+        assertThat(http.get("/users/me").headers.getFirst("X-Before")).isEqualTo("{id=me}")
+        assertThat(app.unsafe.internalRouter.routeCacheHitCount()).isEqualTo(1)
+    }
+
+    @Test
+    fun `routes with the same shape share their execution plan without the route cache`() = TestUtil.test { app, http ->
+        app.unsafe.routes.before { it.header("X-Before", "true") }
+        app.unsafe.routes.get("/users/{id}") { it.result("user " + it.pathParam("id")) }
+        app.unsafe.routes.get("/teams/{id}") { it.result("team " + it.pathParam("id")) }
+        assertThat(http.getBody("/users/1")).isEqualTo("user 1")
+        assertThat(http.getBody("/teams/2")).isEqualTo("team 2")
+        val router = app.unsafe.internalRouter
+        val executionPlan = ExecutionPlan.of(router.findRoutePlan(HandlerType.GET, "/users/1"))
+        assertThat(ExecutionPlan.of(router.findRoutePlan(HandlerType.GET, "/teams/2"))).isSameAs(executionPlan)
+        assertThat(ExecutionPlan.of(router.findRoutePlan(HandlerType.GET, "/unknown"))).isNotSameAs(executionPlan)
+    }
+
+    @Test
+    fun `route cache is disabled by default`() = TestUtil.test { app, http ->
+        app.unsafe.routes.get("/hello") { it.result("Hello") }
+        assertThat(http.getBody("/hello")).isEqualTo("Hello")
+        assertThat(http.getBody("/hello")).isEqualTo("Hello")
+        assertThat(app.unsafe.internalRouter.routeCacheHitCount()).isEqualTo(0)
+        assertThat(app.unsafe.internalRouter.routeCacheMissCount()).isEqualTo(0)
+    }
+
+    @Test
+    fun `frequently used keys survive a flood of one-off keys`() {
+        val cache = TinyLfuCache<String, String>(100)
+        repeat(5) { (0 until 50).forEach { cache.put("hot$it", "value") ; cache.get("hot$it") } }
+        (0 until 10_000).forEach { cache.put("cold$it", "value") }
+        assertThat(cache.size()).isLessThanOrEqualTo(100)
+        assertThat((0 until 50).count { cache.get("hot$it") != null }).isEqualTo(50)
+    }
+
+    @Test
+    fun `weighted cache stays within its maximum weight`() {
+        val cache = TinyLfuCache<String, String>(maximumSize = 100, maximumWeight = 50) { it.length }
+        (0 until 20).forEach { cache.put("key$it", "0123456789") }
+        assertThat(cache.weight()).isLessThanOrEqualTo(50)
+        cache.put("huge", "x".repeat(51))
+        assertThat(cache.get("huge")).isNull()
+        cache.removeIf { key, _ -> key.startsWith("key") }
+        assertThat(cache.size()).isEqualTo(0)
+        assertThat(cache.weight()).isEqualTo(0)
+    }
+
+}
@@ -12,6 +12,7 @@ import io.javalin.apibuilder.ApiBuilder.get
 import io.javalin.apibuilder.ApiBuilder.path
 import io.javalin.http.HandlerType
 import io.javalin.http.HttpStatus
+import io.javalin.http.HttpStatus.BAD_REQUEST
 import io.javalin.http.HttpStatus.METHOD_NOT_ALLOWED
 import io.javalin.http.HttpStatus.NOT_FOUND
 import io.javalin.http.HttpStatus.OK
@@ -327,6 +328,59 @@ class TestRouting {
         }
     }
 
+    @Test
+    fun `typed path-params only match values of their type`() {
+        val app = Javalin.create { config ->
+            config.routes.get("/users/{id:long}") { it.result("long " + it.pathParamLong("id")) }
+            config.routes.get("/users/{id:uuid}") { it.result("uuid " + it.pathParam("id")) }
+            config.routes.get("/users/{name}") { it.result("name " + it.pathParam("name")) }
+            config.routes.get("/files/{id:int}.json") { it.result("file " + it.pathParamLong("id")) }
+        }
+        TestUtil.test(app) { _, http ->
+            assertThat(http.getBody("/users/-42")).isEqualTo("long -42")
+            assertThat(http.getBody("/users/9223372036854775807")).isEqualTo("long 9223372036854775807")
+            assertThat(http.getBody("/users/9223372036854775808")).isEqualTo("name 9223372036854775808")
+            assertThat(http.getBody("/users/123e4567-e89b-12d3-a456-426614174000")).isEqualTo("uuid 123e4567-e89b-12d3-a456-426614174000")
+            assertThat(http.getBody("/users/abc")).isEqualTo("name abc")
+            assertThat(http.getBody("/files/7.json")).isEqualTo("file 7")
+            assertThat(http.getStatus("/files/2147483648.json")).isEqualTo(NOT_FOUND)
+        }
+    }
+
+    @Test
+    fun `typed path-params accept percent-encoded values`() {
+        val app = Javalin.create { config ->
+            config.routes.get("/users/{id:long}") { it.result("long " + it.pathParamLong("id")) }
+            config.routes.get("/users/{name}") { it.result("name " + it.pathParam("name")) }
+        }
+        TestUtil.test(app) { _, http ->
+            assertThat(http.getBody("/users/%31")).isEqualTo("long 1")
+            assertThat(http.getBody("/users/%2D4%32")).isEqualTo("long -42")
+            assertThat(http.getBody("/users/%41")).isEqualTo("name A")
+        }
+    }
+
+    @Test
+    fun `path-param names with an unknown type are kept as they are`() {
+        val app = Javalin.create { config ->
+            config.routes.get("/{a:b}") { it.result(it.pathParam("a:b")) }
+        }
+        TestUtil.test(app) { _, http ->
+            assertThat(http.getBody("/value")).isEqualTo("value")
+        }
+    }
+
+    @Test
+    fun `untyped path-params can be read as long`() {
+        val app = Javalin.create { config ->
+            config.routes.get("/{id}") { it.result((it.pathParamLong("id") + 1).toString()) }
+        }
+        TestUtil.test(app) { _, http ->
+            assertThat(http.getBody("/41")).isEqualTo("42")
+            assertThat(http.getStatus("/abc")).isEqualTo(BAD_REQUEST)
+        }
+    }
+
     @Test
     fun `percentage operator does not consume text`() {
         val app = Javalin.create { config ->
@@ -559,4 +613,53 @@ class TestRouting {
         }
     }
 
+    @Test
+    fun `routes can be removed while the server is running`() = TestUtil.test { app, http ->
+        app.unsafe.routes.get("/tenant/{id}") { it.result("tenant " + it.pathParam("id")) }
+        assertThat(http.getBody("/tenant/1")).isEqualTo("tenant 1")
+        assertThat(app.unsafe.internalRouter.removeHttpEndpoint(HandlerType.GET, "/tenant/{id}")).isTrue()
+        assertThat(app.unsafe.internalRouter.removeHttpEndpoint(HandlerType.GET, "/tenant/{id}")).isFalse()
+        assertThat(http.get("/tenant/1").httpCode()).isEqualTo(NOT_FOUND)
+        app.unsafe.routes.get("/tenant/{id}") { it.result("re-added " + it.pathParam("id")) }
+        assertThat(http.getBody("/tenant/1")).isEqualTo("re-added 1")
+    }
+
+    @Test
+    fun `rejected batch of routes is not added`() = TestUtil.test { app, http ->
+        app.unsafe.routes.get("/existing") { it.result("existing") }
+        val batch = listOf(
+            Endpoint(HandlerType.GET, "/new", { it.result("new") }),
+            Endpoint(HandlerType.GET, "/existing", { it.result("duplicate") }),
+        )
+        assertThrows<IllegalArgumentException> { app.unsafe.internalRouter.addHttpEndpoints(batch) }
+        assertThat(http.get("/new").httpCode()).isEqualTo(NOT_FOUND)
+        assertThat(http.getBody("/existing")).isEqualTo("existing")
+    }
+
+    @Test
+    fun `rejected batch of routes is not added before the server starts`() {
+        val app = Javalin.create { it.routes.get("/existing") { ctx -> ctx.result("existing") } }
+        val withExisting = listOf(Endpoint(HandlerType.GET, "/new", { it.result("new") }), Endpoint(HandlerType.GET, "/existing", { it.result("duplicate") }))
+        val withDuplicate = listOf(Endpoint(HandlerType.GET, "/other", { it.result("other") }), Endpoint(HandlerType.GET, "/other", { it.result("duplicate") }))
+        assertThrows<IllegalArgumentException> { app.unsafe.internalRouter.addHttpEndpoints(withExisting) }
+        assertThrows<IllegalArgumentException> { app.unsafe.internalRouter.addHttpEndpoints(withDuplicate) }
+        TestUtil.test(app) { _, http ->
+            assertThat(http.get("/new").httpCode()).isEqualTo(NOT_FOUND)
+            assertThat(http.get("/other").httpCode()).isEqualTo(NOT_FOUND)
+            assertThat(http.getBody("/existing")).isEqualTo("existing")
+        }
+    }
+
+    @Test
+    fun `requests are served while routes are added concurrently`() = TestUtil.test { app, http ->
+        app.unsafe.routes.get("/stable/{id}") { it.result("stable") }
+        val writer = Thread {
+            repeat(500) { i -> app.unsafe.routes.get("/added/$i/{id}") { it.result("added $i") } }
+        }
+        writer.start()
+        repeat(200) { assertThat(http.getBody("/stable/$it")).isEqualTo("stable") }
+        writer.join()
+        assertThat(http.getBody("/added/499/1")).isEqualTo("added 499")
+    }
+
 }
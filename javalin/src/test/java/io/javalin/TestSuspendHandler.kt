@@ -0,0 +1,80 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin
+
+import io.javalin.http.HttpStatus
+import io.javalin.http.NotFoundResponse
+import io.javalin.http.SuspendHandler
+import io.javalin.testing.TestUtil
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.delay
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit.SECONDS
+
+class TestSuspendHandler {
+
+    @Test
+    fun `suspend handler that doesn't suspend finishes synchronously`() = TestUtil.test { app, http ->
+        app.unsafe.routes.before { it.attribute("request-thread", Thread.currentThread()) }
+        app.unsafe.routes.get("/", SuspendHandler { it.result("Hello from the request thread: ${Thread.currentThread() == it.attribute("request-thread")}") })
+        app.unsafe.routes.after { it.header("X-Async", it.req().isAsyncStarted.toString()) }
+        assertThat(http.get("/").let { it.body to it.headers.getFirst("X-Async") }).isEqualTo("Hello from the request thread: true" to "false")
+    }
+
+    @Test
+    fun `suspend handler resumes after suspending`() = TestUtil.test { app, http ->
+        app.unsafe.routes.get("/{name}", SuspendHandler { ctx ->
+            delay(10)
+            ctx.result("Hello ${ctx.pathParam("name")}")
+        })
+        assertThat(http.getBody("/world")).isEqualTo("Hello world")
+    }
+
+    @Test
+    fun `suspend handler resumes on the given executor`() = TestUtil.test { app, http ->
+        val executor = Executors.newSingleThreadExecutor { Thread(it, "suspend-test-thread") }
+        app.unsafe.routes.get("/", SuspendHandler(executor) { ctx ->
+            delay(10)
+            ctx.result(Thread.currentThread().name)
+        })
+        assertThat(http.getBody("/")).startsWith("suspend-test-thread") // the coroutine name is appended in debug mode
+        executor.shutdown()
+    }
+
+    @Test
+    fun `exceptions in suspend handlers are handled by exception mappers`() = TestUtil.test { app, http ->
+        app.unsafe.routes.get("/sync", SuspendHandler { throw NotFoundResponse() })
+        app.unsafe.routes.get("/suspended", SuspendHandler {
+            delay(10)
+            throw IllegalStateException("Suspended")
+        })
+        app.unsafe.routes.exception(IllegalStateException::class.java) { e, ctx -> ctx.result(e.message!!) }
+        assertThat(http.getStatus("/sync")).isEqualTo(HttpStatus.NOT_FOUND)
+        assertThat(http.getBody("/suspended")).isEqualTo("Suspended")
+    }
+
+    @Test
+    fun `suspend handler is cancelled on timeout`() {
+        val cancelled = CompletableFuture<Boolean>()
+        TestUtil.test(Javalin.create { it.http.asyncTimeout = 10 }) { app, http ->
+            app.unsafe.routes.get("/", SuspendHandler {
+                try {
+                    delay(5_000)
+                } catch (e: CancellationException) {
+                    cancelled.complete(true)
+                    throw e
+                }
+            })
+            assertThat(http.getBody("/")).isEqualTo(HttpStatus.REQUEST_TIMEOUT.message)
+            assertThat(cancelled.get(1, SECONDS)).isTrue()
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Javalin - https://javalin.io
+ * Copyright 2017 David Åse
+ * Licensed under Apache 2.0: https://github.com/tipsy/javalin/blob/master/LICENSE
+ */
+
+package io.javalin
+
+import io.javalin.http.servlet.splitKeyValueStringAndGroupByKey
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.net.URLDecoder
+
+class TestUrlEncodedParams {
+
+    private val strings = listOf(
+        "", "a", "a=", "=", "&", "a=1", "a=1&b=2", "a=1&a=2&b=3&a=", "a=1&", "&a=1", "a&b", "a==1", "a=1=2",
+        "q=hello+world", "q=hello%20world", "q%5B%5D=1&q%5B%5D=2", "q[]=1&q%5B%5D=2", "%2B=%2B", "a+b=c+d", "a=%",
+        "a=%zz&a=1", "%zz=1&b=2", "a=%C3%A6%C3%B8%C3%A5", "emoji=%F0%9F%98%80", "a=1&&b=2", "utm_source=x&page=2&sort=name",
+    )
+
+    private fun referenceParse(string: String, charset: String): Map<String, List<String>> {
+        fun String.decode() = try { URLDecoder.decode(this, charset) } catch (_: Exception) { null }
+        return if (string.isEmpty()) mapOf() else string.split("&")
+            .map { it.split("=", limit = 2).let { it[0] to it.getOrElse(1) { "" } } }
+            .groupBy({ it.first.decode() }, { it.second.decode() })
+            .mapNotNull { (k, v) -> k?.let { it to v.filterNotNull() } }.toMap()
+    }
+
+    @Test
+    fun `parsed params match split and decode`() {
+        strings.forEach { string ->
+            val expected = referenceParse(string, "UTF-8")
+            val params = splitKeyValueStringAndGroupByKey(string, "UTF-8")
+            expected.forEach { (key, values) -> assertThat(params[key]).describedAs("'$key' of '$string'").isEqualTo(values) }
+            assertThat(params["missing"]).isNull()
+            assertThat(params.toList()).describedAs(string).isEqualTo(expected.toList()) // same order of keys
+            assertThat(params.isEmpty()).isEqualTo(expected.isEmpty())
+        }
+    }
+
+    @Test
+    fun `single params are read without reading the whole map`() {
+        val params = splitKeyValueStringAndGroupByKey("a=1&b=%zz&a=%32&c", "UTF-8")
+        assertThat(params["a"]).containsExactly("1", "2")
+        assertThat(params["b"]).isEmpty()
+        assertThat(params["c"]).containsExactly("")
+        assertThat(params.containsKey("b")).isTrue()
+        assertThat(params.keys).containsExactly("a", "b", "c")
+        assertThat(params["a"]).containsExactly("1", "2") // from the grouped map
+    }
+
+}
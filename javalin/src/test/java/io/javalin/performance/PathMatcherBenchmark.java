@@ -31,15 +31,20 @@ public class PathMatcherBenchmark {
         new Runner(opt).run();
     }
 
+    @Param({"50", "3000"})
+    public int routeCount;
+
     private OldPathMatcher oldPathMatcher;
     private PathMatcher pathMatcher;
+    private String lastPath;
 
     @Setup
     public void setup() {
         this.oldPathMatcher = new OldPathMatcher();
-        this.pathMatcher = new PathMatcher();
         var routingConfig = new RouterConfig();
-        for (int i = 0; i < 50; i++) {
+        this.pathMatcher = new PathMatcher(routingConfig);
+        this.lastPath = "/hello" + (routeCount - 1);
+        for (int i = 0; i < routeCount; i++) {
             this.pathMatcher.add(new ParsedEndpoint(Endpoint.create(GET, "/hello" + i).handler((ctx) -> {}), routingConfig));
             this.oldPathMatcher.add(new ParsedEndpoint(Endpoint.create(GET, "/hello" + i).handler((ctx) -> {}), routingConfig));
         }
@@ -52,7 +57,7 @@ public class PathMatcherBenchmark {
 
     @Benchmark
     public void matchLastStream(Blackhole blackhole) {
-        blackhole.consume(pathMatcher.findEntries(GET, "/hello49").get(0));
+        blackhole.consume(pathMatcher.findEntries(GET, lastPath).get(0));
     }
 
     @Benchmark
@@ -62,7 +67,7 @@ public class PathMatcherBenchmark {
 
     @Benchmark
     public void matchLastList(Blackhole blackhole) {
-        blackhole.consume(oldPathMatcher.findEntries(GET, "/hello49").iterator().next());
+        blackhole.consume(oldPathMatcher.findEntries(GET, lastPath).iterator().next());
     }
 
 }
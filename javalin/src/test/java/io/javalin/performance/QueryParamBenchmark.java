@@ -0,0 +1,76 @@
+package io.javalin.performance;
+
+import io.javalin.http.servlet.JavalinServletContextKt;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the url-encoded param parser of Javalin (used for query strings and form bodies)
+ * to the previous split/groupBy implementation, for a few realistic query strings.
+ * Run with the GC profiler to see the allocations per operation.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 2)
+public class QueryParamBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        var opt = new OptionsBuilder()
+            .include(QueryParamBenchmark.class.getName())
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(opt).run();
+    }
+
+    @Param({
+        "page=2&size=20",
+        "q=running+shoes&category=sports&sort=price_asc&page=3&size=48&in_stock=true",
+        "utm_source=newsletter&utm_medium=email&utm_campaign=spring%20sale&utm_content=hero&ref=home&filter%5Bcolor%5D=red&filter%5Bcolor%5D=blue&page=1",
+    })
+    public String queryString;
+
+    @Benchmark
+    public void singleParam(Blackhole blackhole) {
+        blackhole.consume(JavalinServletContextKt.splitKeyValueStringAndGroupByKey(queryString, "UTF-8").get("page"));
+    }
+
+    @Benchmark
+    public void singleParamSplit(Blackhole blackhole) {
+        blackhole.consume(splitAndGroup(queryString).get("page"));
+    }
+
+    @Benchmark
+    public void wholeMap(Blackhole blackhole) {
+        Map<String, List<String>> params = JavalinServletContextKt.splitKeyValueStringAndGroupByKey(queryString, "UTF-8");
+        params.forEach((key, values) -> blackhole.consume(values));
+    }
+
+    @Benchmark
+    public void wholeMapSplit(Blackhole blackhole) {
+        splitAndGroup(queryString).forEach((key, values) -> blackhole.consume(values));
+    }
+
+    /** Like the previous implementation: split the pairs, decode every key and value, then group them by key */
+    private static Map<String, List<String>> splitAndGroup(String string) {
+        Map<String, List<String>> params = new LinkedHashMap<>();
+        for (String pair : string.split("&")) {
+            String[] keyValue = pair.split("=", 2);
+            String key = URLDecoder.decode(keyValue[0], StandardCharsets.UTF_8);
+            String value = URLDecoder.decode(keyValue.length > 1 ? keyValue[1] : "", StandardCharsets.UTF_8);
+            params.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }
+        return params;
+    }
+
+}
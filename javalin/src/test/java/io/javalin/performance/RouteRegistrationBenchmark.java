@@ -0,0 +1,67 @@
+package io.javalin.performance;
+
+import io.javalin.config.RouterConfig;
+import io.javalin.router.Endpoint;
+import io.javalin.router.ParsedEndpoint;
+import io.javalin.router.matcher.PathMatcher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.javalin.http.HandlerType.DELETE;
+import static io.javalin.http.HandlerType.GET;
+import static io.javalin.http.HandlerType.POST;
+
+/**
+ * Measures how long it takes to register a large, generated route table and serve the first request.
+ * Every resource gets a static GET route, and GET, POST and DELETE routes with (typed) path params.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RouteRegistrationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        var opt = new OptionsBuilder()
+            .include(RouteRegistrationBenchmark.class.getName())
+            .build();
+        new Runner(opt).run();
+    }
+
+    @Param({"1000", "10000", "50000"})
+    public int routeCount;
+
+    private final RouterConfig routerConfig = new RouterConfig();
+
+    @Benchmark
+    public PathMatcher registerRoutes() {
+        var pathMatcher = new PathMatcher(routerConfig);
+        for (int i = 0; i < routeCount; i++) {
+            var resource = "/api/v1/resource" + (i / 4);
+            switch (i % 4) {
+                case 0 -> pathMatcher.add(endpoint(GET, resource));
+                case 1 -> pathMatcher.add(endpoint(GET, resource + "/{id:long}"));
+                case 2 -> pathMatcher.add(endpoint(POST, resource + "/{id}/items"));
+                default -> pathMatcher.add(endpoint(DELETE, resource + "/{id}/items/{itemId}"));
+            }
+        }
+        return pathMatcher;
+    }
+
+    @Benchmark
+    public void registerRoutesAndServeFirstRequest(Blackhole blackhole) {
+        var pathMatcher = registerRoutes();
+        blackhole.consume(pathMatcher.findFirstEntry(GET, "/api/v1/resource" + (routeCount / 4 - 1) + "/42"));
+    }
+
+    private ParsedEndpoint endpoint(io.javalin.http.HandlerType method, String path) {
+        return new ParsedEndpoint(Endpoint.create(method, path).handler(ctx -> {}), routerConfig);
+    }
+
+}